@@ -0,0 +1,61 @@
+package com.akgarg.paymentservice.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    static final String VIRTUAL_THREADS_ENABLED_PROPERTY = "spring.threads.virtual.enabled";
+
+    @Bean
+    public AsyncTaskExecutor paymentPreCheckExecutor(final Environment environment) {
+        final var maxPoolSize = environment.getProperty("payment.pre-check.executor.max-pool-size", Integer.class, 64);
+
+        if (environment.getProperty(VIRTUAL_THREADS_ENABLED_PROPERTY, Boolean.class, false)) {
+            final var executor = new SimpleAsyncTaskExecutor("payment-pre-check-");
+            executor.setVirtualThreads(true);
+            // submitters block once the limit is reached, the same backpressure the pool gives via CallerRunsPolicy; only
+            // request threads may submit, a task submitting here could wait for its own permit
+            executor.setConcurrencyLimit(maxPoolSize);
+            executor.setTaskDecorator(new ThreadContextPropagatingTaskDecorator());
+            return executor;
+        }
+
+        final var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(environment.getProperty("payment.pre-check.executor.core-pool-size", Integer.class, 16));
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(environment.getProperty("payment.pre-check.executor.queue-capacity", Integer.class, 256));
+        executor.setThreadNamePrefix("payment-pre-check-");
+        executor.setTaskDecorator(new ThreadContextPropagatingTaskDecorator());
+        // when saturated the request thread runs the lookup itself, which throttles callers instead of failing them
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    @Bean
+    public AsyncTaskExecutor subscriptionServiceExecutor(final Environment environment) {
+        if (environment.getProperty(VIRTUAL_THREADS_ENABLED_PROPERTY, Boolean.class, false)) {
+            // no concurrency limit: a limited executor would block the scheduler thread that submits hedges
+            final var executor = new SimpleAsyncTaskExecutor("subscription-service-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+
+        final var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(environment.getProperty("subscription.service.executor.core-pool-size", Integer.class, 16));
+        executor.setMaxPoolSize(environment.getProperty("subscription.service.executor.max-pool-size", Integer.class, 64));
+        executor.setQueueCapacity(environment.getProperty("subscription.service.executor.queue-capacity", Integer.class, 256));
+        executor.setThreadNamePrefix("subscription-service-");
+        // rejections are handled by the caller: requests fail fast and hedges are skipped
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+
+}
@@ -8,7 +8,9 @@ import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 @Profile("prod")
@@ -33,4 +35,25 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * Shared by all pub/sub subscribers, so they use a single subscription connection. Messages are handled on a small
+     * fixed pool, instead of the container's default of a new thread per message.
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(final RedisConnectionFactory redisConnectionFactory,
+                                                                       final Environment environment) {
+        final var executor = new ThreadPoolTaskExecutor();
+        final var listenerThreads = environment.getProperty("spring.data.redis.listener-threads", Integer.class, 2);
+        executor.setCorePoolSize(listenerThreads);
+        executor.setMaxPoolSize(listenerThreads);
+        executor.setThreadNamePrefix("redis-listener-");
+        executor.setDaemon(true);
+        executor.initialize();
+
+        final var container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.setTaskExecutor(executor);
+        return container;
+    }
+
 }
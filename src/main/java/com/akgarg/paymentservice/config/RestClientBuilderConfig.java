@@ -2,14 +2,33 @@ package com.akgarg.paymentservice.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import static com.akgarg.paymentservice.config.ExecutorConfig.VIRTUAL_THREADS_ENABLED_PROPERTY;
+
 @Configuration
 public class RestClientBuilderConfig {
 
     @Bean
-    public RestClient.Builder restClientBuilder() {
-        return RestClient.builder();
+    public RestClient.Builder restClientBuilder(final Environment environment) {
+        final var httpClientBuilder = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(environment.getProperty("rest-client.connect-timeout", Long.class, 2_000L)));
+
+        if (environment.getProperty(VIRTUAL_THREADS_ENABLED_PROPERTY, Boolean.class, false)) {
+            httpClientBuilder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+
+        final var requestFactory = new JdkClientHttpRequestFactory(httpClientBuilder.build());
+        requestFactory.setReadTimeout(Duration.ofMillis(environment.getProperty("rest-client.read-timeout", Long.class, 10_000L)));
+
+        return RestClient.builder()
+                .requestFactory(requestFactory);
     }
 
 }
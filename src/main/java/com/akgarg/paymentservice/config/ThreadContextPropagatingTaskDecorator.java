@@ -0,0 +1,32 @@
+package com.akgarg.paymentservice.config;
+
+import jakarta.annotation.Nonnull;
+import org.apache.logging.log4j.ThreadContext;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Copies the submitting thread's log4j {@link ThreadContext} (request id etc.) to the thread running the task. The
+ * running thread's own context is put back afterwards, since with {@code CallerRunsPolicy} that may be the submitting
+ * request thread itself.
+ */
+public class ThreadContextPropagatingTaskDecorator implements TaskDecorator {
+
+    @Nonnull
+    @Override
+    public Runnable decorate(@Nonnull final Runnable runnable) {
+        final var context = ThreadContext.getImmutableContext();
+
+        return () -> {
+            final var previousContext = ThreadContext.getImmutableContext();
+            ThreadContext.clearMap();
+            ThreadContext.putAll(context);
+            try {
+                runnable.run();
+            } finally {
+                ThreadContext.clearMap();
+                ThreadContext.putAll(previousContext);
+            }
+        };
+    }
+
+}
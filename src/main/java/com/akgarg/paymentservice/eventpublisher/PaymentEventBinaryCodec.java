@@ -0,0 +1,181 @@
+package com.akgarg.paymentservice.eventpublisher;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary form of a {@link PaymentEvent}. The layout is:
+ * <pre>
+ * schema version   1 byte
+ * presence bitmap  1 byte, bit i set if the i-th field of the record is not null
+ * fields           in record order, only those present:
+ *                  strings as a varint UTF-8 byte length followed by the bytes, amount as an 8 byte IEEE 754 double
+ * </pre>
+ * Field names are not written, so a record is about half the size of its JSON form. New fields must be added with a
+ * new schema version.
+ * <p>
+ * Encoding writes into a buffer reused per thread, and only allocates the returned array.
+ */
+public final class PaymentEventBinaryCodec {
+
+    public static final byte SCHEMA_VERSION = 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+    private PaymentEventBinaryCodec() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static byte[] encode(final PaymentEvent paymentEvent) {
+        var buffer = ENCODE_BUFFER.get();
+
+        while (true) {
+            try {
+                buffer.clear();
+                encode(paymentEvent, buffer);
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                ENCODE_BUFFER.set(buffer);
+            }
+        }
+    }
+
+    public static PaymentEvent decode(final byte[] data) {
+        final var buffer = ByteBuffer.wrap(data);
+        final var version = buffer.get();
+
+        if (version != SCHEMA_VERSION) {
+            throw new IllegalArgumentException("Unsupported payment event schema version " + version);
+        }
+
+        final var presence = buffer.get();
+
+        return new PaymentEvent(
+                (presence & 1) != 0 ? getString(buffer) : null,
+                (presence & 1 << 1) != 0 ? getString(buffer) : null,
+                (presence & 1 << 2) != 0 ? getString(buffer) : null,
+                (presence & 1 << 3) != 0 ? buffer.getDouble() : null,
+                (presence & 1 << 4) != 0 ? getString(buffer) : null,
+                (presence & 1 << 5) != 0 ? getString(buffer) : null,
+                (presence & 1 << 6) != 0 ? getString(buffer) : null,
+                (presence & 1 << 7) != 0 ? getString(buffer) : null
+        );
+    }
+
+    private static void encode(final PaymentEvent paymentEvent, final ByteBuffer buffer) {
+        final Object[] fields = {
+                paymentEvent.paymentId(),
+                paymentEvent.userId(),
+                paymentEvent.packId(),
+                paymentEvent.amount(),
+                paymentEvent.currency(),
+                paymentEvent.paymentGateway(),
+                paymentEvent.email(),
+                paymentEvent.name()
+        };
+
+        var presence = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                presence |= 1 << i;
+            }
+        }
+
+        buffer.put(SCHEMA_VERSION);
+        buffer.put((byte) presence);
+
+        for (final var field : fields) {
+            if (field instanceof String value) {
+                putString(buffer, value);
+            } else if (field instanceof Double value) {
+                buffer.putDouble(value);
+            }
+        }
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        putVarint(buffer, utf8Length(value));
+
+        for (int i = 0; i < value.length(); i++) {
+            final var c = value.charAt(i);
+
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final var codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18));
+                buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like String.getBytes does
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(final String value) {
+        var length = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            final var c = value.charAt(i);
+
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    private static void putVarint(final ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(final ByteBuffer buffer) {
+        var value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            final var b = buffer.get();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final var length = getVarint(buffer);
+        final var value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+}
@@ -1,7 +1,13 @@
 package com.akgarg.paymentservice.eventpublisher;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface PaymentEventPublisher {
 
-    void publishPaymentSuccess(PaymentEvent paymentEvent);
+    /**
+     * Publishes the event asynchronously. The returned future completes once the event has been accepted by the
+     * broker, or exceptionally if it could not be published.
+     */
+    CompletableFuture<Void> publishPaymentSuccess(PaymentEvent paymentEvent);
 
 }
@@ -0,0 +1,320 @@
+package com.akgarg.paymentservice.eventpublisher.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * First-in first-out queue of records kept in memory-mapped segment files, used to hold Kafka events while the broker
+ * can't take them. Each record is {@code [payload length][CRC32C of payload][payload]}; a zero length marks the end of
+ * the written part of a segment. A record is forced to disk before {@link #offer(byte[])} returns.
+ * <p>
+ * The read position is kept in a small cursor file. It is not forced, so after a crash a few records may be read
+ * again. Segments are deleted once fully read, and {@link #offer(byte[])} refuses records when {@code maxSegments}
+ * segments are in use, which bounds disk usage to {@code maxSegments * segmentSize}.
+ */
+@Slf4j
+final class DiskSpool implements Closeable {
+
+    private static final String SEGMENT_FILE_PREFIX = "spool-";
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+    private static final String CURSOR_FILE_NAME = "cursor";
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private final NavigableMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private MappedByteBuffer cursor;
+    private int writePosition;
+    private long readSequence;
+    private int readPosition;
+
+    private volatile long depth;
+
+    private DiskSpool(final Path directory, final int segmentSize, final int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    static DiskSpool open(final Path directory, final int segmentSize, final int maxSegments) throws IOException {
+        Files.createDirectories(directory);
+
+        final var spool = new DiskSpool(directory, segmentSize, maxSegments);
+        spool.load();
+        return spool;
+    }
+
+    /**
+     * Appends a record and forces it to disk.
+     *
+     * @return false if the spool is full or the record is larger than a segment
+     */
+    boolean offer(final byte[] payload) throws IOException {
+        final var recordSize = RECORD_HEADER_SIZE + payload.length;
+
+        if (recordSize > segmentSize) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            if (writePosition + recordSize > segmentSize) {
+                final var lastSequence = segments.lastKey();
+                final var lastSegmentRead = readSequence == lastSequence && readPosition == writePosition;
+
+                if (segments.size() >= maxSegments && !lastSegmentRead) {
+                    return false;
+                }
+
+                openSegment(lastSequence + 1);
+                writePosition = 0;
+                deleteReadSegments();
+                saveCursor();
+            }
+
+            final var segment = segments.lastEntry().getValue();
+            final var crc = new CRC32C();
+            crc.update(payload);
+
+            segment.putInt(writePosition + Integer.BYTES, (int) crc.getValue());
+            segment.put(writePosition + RECORD_HEADER_SIZE, payload);
+            segment.putInt(writePosition, payload.length);
+            segment.force(writePosition, recordSize);
+
+            writePosition += recordSize;
+            depth++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code maxRecords} of the oldest records without removing them.
+     */
+    List<byte[]> peek(final int maxRecords) {
+        lock.lock();
+        try {
+            final var records = new ArrayList<byte[]>(Math.min(maxRecords, (int) Math.min(depth, Integer.MAX_VALUE)));
+            var sequence = readSequence;
+            var position = readPosition;
+
+            while (records.size() < maxRecords) {
+                final var length = recordLength(sequence, position);
+
+                if (length == 0) {
+                    final var nextSequence = segments.higherKey(sequence);
+                    if (nextSequence == null) {
+                        break;
+                    }
+                    sequence = nextSequence;
+                    position = 0;
+                    continue;
+                }
+
+                final var payload = new byte[length];
+                segments.get(sequence).get(position + RECORD_HEADER_SIZE, payload);
+                records.add(payload);
+                position += RECORD_HEADER_SIZE + length;
+            }
+
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the {@code count} oldest records, which must have been returned by {@link #peek(int)}, and deletes the
+     * segments that no longer hold unread records.
+     */
+    void remove(final int count) throws IOException {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                deleteReadSegments();
+                final var length = recordLength(readSequence, readPosition);
+
+                if (length == 0) {
+                    throw new IllegalStateException("Removing more records than the spool holds");
+                }
+
+                readPosition += RECORD_HEADER_SIZE + length;
+                depth--;
+            }
+
+            deleteReadSegments();
+            saveCursor();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long depth() {
+        return depth;
+    }
+
+    boolean isEmpty() {
+        return depth == 0;
+    }
+
+    long diskUsage() {
+        lock.lock();
+        try {
+            return (long) segments.size() * segmentSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            cursor.force();
+            segments.values().forEach(MappedByteBuffer::force);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        try (final var channel = FileChannel.open(directory.resolve(CURSOR_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            cursor = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES + Integer.BYTES);
+        }
+        readSequence = cursor.getLong(0);
+        readPosition = cursor.getInt(Long.BYTES);
+
+        final List<Long> sequences;
+        try (final var files = Files.list(directory)) {
+            sequences = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+
+        for (final var sequence : sequences) {
+            if (sequence < readSequence) {
+                Files.deleteIfExists(segmentPath(sequence));
+            } else {
+                openSegment(sequence);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(readSequence);
+        }
+
+        if (segments.firstKey() != readSequence) {
+            log.warn("Spool segment {} is missing, reading from segment {}", readSequence, segments.firstKey());
+            readSequence = segments.firstKey();
+            readPosition = 0;
+        }
+
+        // count unread records and find where the last segment's valid records end
+        long unread = 0;
+        for (final var entry : segments.entrySet()) {
+            final var segment = entry.getValue();
+            var position = entry.getKey() == readSequence ? readPosition : 0;
+
+            while (position + RECORD_HEADER_SIZE <= segmentSize) {
+                final var length = segment.getInt(position);
+
+                if (length == 0) {
+                    break;
+                }
+
+                if (!isValidRecord(segment, position, length)) {
+                    // a crash interrupted this append, so it was never acknowledged
+                    log.warn("Discarding incomplete spool record in segment {} at position {}", entry.getKey(), position);
+                    segment.put(position, new byte[segmentSize - position]);
+                    segment.force();
+                    break;
+                }
+
+                position += RECORD_HEADER_SIZE + length;
+                unread++;
+            }
+
+            writePosition = position;
+        }
+
+        depth = unread;
+        log.info("Opened Kafka spool at {} with {} pending records", directory.toAbsolutePath(), unread);
+    }
+
+    private boolean isValidRecord(final MappedByteBuffer segment, final int position, final int length) {
+        if (length < 0 || length > segmentSize - position - RECORD_HEADER_SIZE) {
+            return false;
+        }
+
+        final var crc = new CRC32C();
+        crc.update(segment.slice(position + RECORD_HEADER_SIZE, length));
+        return (int) crc.getValue() == segment.getInt(position + Integer.BYTES);
+    }
+
+    /**
+     * Length of the record at the given position, or {@code 0} if the segment holds no more records from there.
+     */
+    private int recordLength(final long sequence, final int position) {
+        return position + RECORD_HEADER_SIZE <= segmentSize ? segments.get(sequence).getInt(position) : 0;
+    }
+
+    /**
+     * Deletes segments from the front while all their records have been read and a newer segment exists.
+     */
+    private void deleteReadSegments() throws IOException {
+        while (recordLength(readSequence, readPosition) == 0) {
+            final var nextSequence = segments.higherKey(readSequence);
+
+            if (nextSequence == null) {
+                return;
+            }
+
+            deleteSegment(readSequence);
+            readSequence = nextSequence;
+            readPosition = 0;
+        }
+    }
+
+    private void saveCursor() {
+        cursor.putLong(0, readSequence);
+        cursor.putInt(Long.BYTES, readPosition);
+    }
+
+    private void openSegment(final long sequence) throws IOException {
+        try (final var channel = FileChannel.open(segmentPath(sequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segments.put(sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    private void deleteSegment(final long sequence) throws IOException {
+        segments.remove(sequence);
+        Files.deleteIfExists(segmentPath(sequence));
+    }
+
+    private Path segmentPath(final long sequence) {
+        return directory.resolve("%s%020d%s".formatted(SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_SUFFIX));
+    }
+
+}
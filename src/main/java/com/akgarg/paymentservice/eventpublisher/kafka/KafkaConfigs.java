@@ -1,5 +1,8 @@
 package com.akgarg.paymentservice.eventpublisher.kafka;
 
+import com.akgarg.paymentservice.eventpublisher.PaymentEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
@@ -9,6 +12,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
 
 import java.util.HashMap;
@@ -29,24 +33,68 @@ public class KafkaConfigs {
     @Value(value = "${kafka.payment.success.topic.replication-factor:1}")
     private short paymentTopicReplicationFactor;
 
+    @Value(value = "${kafka.payment.success.encoding:json}")
+    private String paymentEventEncoding;
+
+    @Value(value = "${kafka.producer.linger-ms:5}")
+    private int lingerMs;
+
+    @Value(value = "${kafka.producer.batch-size:65536}")
+    private int batchSize;
+
+    @Value(value = "${kafka.producer.compression-type:lz4}")
+    private String compressionType;
+
+    @Value(value = "${kafka.producer.max-in-flight-requests-per-connection:5}")
+    private int maxInFlightRequestsPerConnection;
+
+    @Value(value = "${kafka.producer.buffer-memory:33554432}")
+    private long bufferMemory;
+
+    @Value(value = "${kafka.producer.max-block-ms:1000}")
+    private long maxBlockMs;
+
+    @Value(value = "${kafka.producer.request-timeout-ms:5000}")
+    private int requestTimeoutMs;
+
+    @Value(value = "${kafka.producer.delivery-timeout-ms:30000}")
+    private int deliveryTimeoutMs;
+
     @Bean
     public NewTopic paymentTopic() {
         return new NewTopic(topicName, paymentTopicPartitions, paymentTopicReplicationFactor);
     }
 
     @Bean
-    public ProducerFactory<String, String> kafkaProducerFactory() {
+    public ProducerFactory<String, PaymentEvent> kafkaProducerFactory(final ObjectMapper objectMapper, final MeterRegistry meterRegistry) {
         final var configProps = new HashMap<String, Object>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
-        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         configProps.put(ProducerConfig.ACKS_CONFIG, "all");
-        return new DefaultKafkaProducerFactory<>(configProps);
+        // idempotence keeps retried batches from being duplicated or reordered, with up to 5 in-flight requests
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        configProps.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, maxInFlightRequestsPerConnection);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        configProps.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
+        // fail fast when the broker is unreachable, so events go to the spool instead of blocking the caller
+        configProps.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlockMs);
+        configProps.put(ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, requestTimeoutMs);
+        configProps.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, deliveryTimeoutMs);
+
+        final var producerFactory = new DefaultKafkaProducerFactory<>(
+                configProps,
+                new StringSerializer(),
+                new PaymentEventSerializer(objectMapper, paymentEventEncoding)
+        );
+        // exports the producer's own metrics, such as kafka.producer.request.latency.avg and kafka.producer.batch.size.avg
+        producerFactory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return producerFactory;
     }
 
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate() {
-        return new KafkaTemplate<>(kafkaProducerFactory());
+    public KafkaTemplate<String, PaymentEvent> kafkaTemplate(final ProducerFactory<String, PaymentEvent> kafkaProducerFactory) {
+        return new KafkaTemplate<>(kafkaProducerFactory);
     }
 
 }
@@ -1,54 +1,291 @@
 package com.akgarg.paymentservice.eventpublisher.kafka;
 
 import com.akgarg.paymentservice.eventpublisher.PaymentEvent;
+import com.akgarg.paymentservice.eventpublisher.PaymentEventBinaryCodec;
 import com.akgarg.paymentservice.eventpublisher.PaymentEventPublisher;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.*;
 
+/**
+ * Publishes payment events to Kafka, keyed by user id so that one user's events stay in order on a single partition.
+ * At most {@code kafka.publisher.max-in-flight} sends wait for acknowledgement at a time; further callers wait up to
+ * {@code kafka.publisher.backpressure-timeout} for one to complete.
+ * <p>
+ * If that wait times out or a send fails, the event is written to a {@link DiskSpool} instead and counts as published.
+ * While the spool holds events, new events are spooled behind them, and a background job replays the spool in order
+ * once the broker accepts sends again.
+ * <p>
+ * A send can take up to the producer's delivery timeout to fail, so a user's next event isn't published until the
+ * previous one was either acknowledged or spooled. Otherwise it could be sent directly while the earlier one is still
+ * on its way to the spool, and reach the topic first.
+ */
 @Slf4j
 @Component
 @Profile("prod")
 @RequiredArgsConstructor
 public class KafkaPaymentEventPublisher implements PaymentEventPublisher {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper objectMapper;
+    private final KafkaTemplate<String, PaymentEvent> kafkaTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final ScheduledExecutorService replayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "kafka-spool-replayer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // runs publishes that waited for an earlier one of the same user, off the producer's network thread
+    private final ExecutorService orderedPublishExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final var thread = new Thread(runnable, "kafka-ordered-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, CompletableFuture<Void>> lastPublishByKey = new ConcurrentHashMap<>();
 
     @Value(value = "${kafka.payment.success.topic.name}")
     private String paymentTopicName;
 
+    private DiskSpool spool;
+    private Semaphore inFlightPermits;
+    private long backpressureTimeoutMillis;
+    private int replayBatchSize;
+    private long replayTimeoutMillis;
+    private Counter replayedEvents;
+    private Counter rejectedEvents;
+
+    // only touched by the replay thread
+    private boolean replayFailing;
+
+    @PostConstruct
+    public void init() throws IOException {
+        inFlightPermits = new Semaphore(environment.getProperty("kafka.publisher.max-in-flight", Integer.class, 1_000));
+        backpressureTimeoutMillis = environment.getProperty("kafka.publisher.backpressure-timeout", Long.class, 100L);
+
+        if (!environment.getProperty("kafka.spool.enabled", Boolean.class, true)) {
+            log.info("Kafka spool is disabled");
+            return;
+        }
+
+        final var directory = Path.of(environment.getProperty("kafka.spool.directory", "data/kafka-spool"));
+        final var segmentSize = environment.getProperty("kafka.spool.segment-size", Integer.class, 16 * 1024 * 1024);
+        final var maxSegments = environment.getProperty("kafka.spool.max-segments", Integer.class, 64);
+        final var replayInterval = environment.getProperty("kafka.spool.replay.interval", Long.class, 1_000L);
+        replayBatchSize = environment.getProperty("kafka.spool.replay.batch-size", Integer.class, 500);
+        replayTimeoutMillis = environment.getProperty("kafka.spool.replay.timeout", Long.class, 10_000L);
+
+        spool = DiskSpool.open(directory, segmentSize, maxSegments);
+
+        Gauge.builder("kafka.spool.depth", spool, DiskSpool::depth)
+                .description("Number of events waiting in the Kafka spool")
+                .register(meterRegistry);
+        Gauge.builder("kafka.spool.disk.usage", spool, DiskSpool::diskUsage)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        replayedEvents = Counter.builder("kafka.spool.replayed")
+                .description("Number of spooled events sent to Kafka")
+                .register(meterRegistry);
+        rejectedEvents = Counter.builder("kafka.spool.rejected")
+                .description("Number of events that could not be spooled because the spool is full")
+                .register(meterRegistry);
+
+        replayScheduler.scheduleWithFixedDelay(this::replay, replayInterval, replayInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        replayScheduler.shutdownNow();
+        orderedPublishExecutor.shutdownNow();
+
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
     @Override
-    public void publishPaymentSuccess(final PaymentEvent paymentEvent) {
+    public CompletableFuture<Void> publishPaymentSuccess(final PaymentEvent paymentEvent) {
         log.info("Publishing payment success event: {}", paymentEvent);
 
-        serializeEvent(paymentEvent)
-                .ifPresent(eventJson -> kafkaTemplate.send(paymentTopicName, eventJson)
-                        .whenComplete((result, throwable) -> {
-                            if (throwable != null) {
-                                log.error("Failed to send payment success event", throwable);
-                            } else {
-                                if (log.isDebugEnabled()) {
-                                    log.debug("Kafka event successfully published: {}", result);
-                                }
-                            }
-                        })
-                );
-    }
-
-    private Optional<String> serializeEvent(final PaymentEvent paymentEvent) {
+        final var key = paymentEvent.userId();
+        final var published = new CompletableFuture<Void>();
+        final var previous = lastPublishByKey.put(key, published);
+
+        final var publish = previous == null || previous.isDone()
+                ? publish(key, paymentEvent)
+                : previous.handle((result, throwable) -> null)
+                .thenComposeAsync(ignored -> publish(key, paymentEvent), orderedPublishExecutor);
+
+        return publish.whenComplete((result, throwable) -> {
+            lastPublishByKey.remove(key, published);
+
+            if (throwable != null) {
+                published.completeExceptionally(throwable);
+            } else {
+                published.complete(null);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> publish(final String key, final PaymentEvent paymentEvent) {
+        // keeps events in order behind the ones already spooled
+        if (spool != null && !spool.isEmpty()) {
+            return spool(key, paymentEvent, "backlog");
+        }
+
+        if (!acquireInFlightPermit()) {
+            return spool != null
+                    ? spool(key, paymentEvent, "in-flight-limit")
+                    : CompletableFuture.failedFuture(new IllegalStateException("Too many Kafka sends in flight"));
+        }
+
+        final var sendResult = send(key, paymentEvent).whenComplete((result, throwable) -> {
+            inFlightPermits.release();
+
+            if (throwable != null) {
+                log.error("Failed to send payment success event", throwable);
+            }
+        });
+        return spool != null
+                ? sendResult.exceptionallyCompose(throwable -> spool(key, paymentEvent, "send-failure"))
+                : sendResult;
+    }
+
+    private boolean acquireInFlightPermit() {
         try {
-            return Optional.of(objectMapper.writeValueAsString(paymentEvent));
+            return inFlightPermits.tryAcquire(backpressureTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Failures are left to the caller to log, so that a replay against an unavailable broker doesn't log every event.
+     */
+    private CompletableFuture<Void> send(final String key, final PaymentEvent paymentEvent) {
+        final var startTime = System.nanoTime();
+
+        try {
+            return kafkaTemplate.send(paymentTopicName, key, paymentEvent)
+                    .whenComplete((result, throwable) -> {
+                        sendLatencyTimer(throwable == null ? "success" : "failure")
+                                .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+                        if (throwable == null && log.isDebugEnabled()) {
+                            log.debug("Kafka event successfully published: {}", result);
+                        }
+                    })
+                    .thenApply(result -> null);
         } catch (Exception e) {
-            log.error("Error serializing payment success event", e);
-            return Optional.empty();
+            return CompletableFuture.failedFuture(e);
         }
     }
 
+    private CompletableFuture<Void> spool(final String key, final PaymentEvent paymentEvent, final String reason) {
+        try {
+            if (spool.offer(encodeSpoolRecord(key, paymentEvent))) {
+                Counter.builder("kafka.spool.spooled")
+                        .tag("reason", reason)
+                        .register(meterRegistry)
+                        .increment();
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (IOException e) {
+            log.error("Failed to write payment success event to the Kafka spool", e);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        rejectedEvents.increment();
+        return CompletableFuture.failedFuture(new IllegalStateException("Kafka spool is full"));
+    }
+
+    /**
+     * Sends spooled events in batches until the spool is empty or a send fails. Only the leading run of acknowledged
+     * events is removed, so nothing is skipped; events acknowledged after a failure are sent again on the next run.
+     * A failing replay is logged once per outage, not on every run.
+     */
+    private void replay() {
+        try {
+            while (!spool.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                final var records = spool.peek(replayBatchSize);
+                final var sends = new ArrayList<CompletableFuture<?>>(records.size());
+
+                for (final var record : records) {
+                    final var buffer = ByteBuffer.wrap(record);
+                    final var key = new byte[buffer.getInt()];
+                    buffer.get(key);
+                    final var encodedEvent = new byte[buffer.remaining()];
+                    buffer.get(encodedEvent);
+                    sends.add(send(new String(key, StandardCharsets.UTF_8), PaymentEventBinaryCodec.decode(encodedEvent)));
+                }
+
+                final var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayTimeoutMillis);
+                var acknowledged = 0;
+
+                try {
+                    for (final var send : sends) {
+                        send.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                        acknowledged++;
+                    }
+                } finally {
+                    spool.remove(acknowledged);
+                    replayedEvents.increment(acknowledged);
+                }
+            }
+
+            if (replayFailing) {
+                log.info("Kafka spool replay recovered, spool is drained");
+                replayFailing = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (!replayFailing) {
+                log.warn("Kafka spool replay stopped with {} events pending, retrying every run until it succeeds", spool.depth(), e);
+                replayFailing = true;
+            } else {
+                log.debug("Kafka spool replay still failing with {} events pending: {}", spool.depth(), e.toString());
+            }
+        }
+    }
+
+    private Timer sendLatencyTimer(final String result) {
+        return Timer.builder("kafka.publish.latency")
+                .description("Time from sending a payment event to its acknowledgement by the broker")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Spooled events are kept in the compact binary form whatever the configured wire format, and re-serialized when
+     * replayed.
+     */
+    private static byte[] encodeSpoolRecord(final String key, final PaymentEvent paymentEvent) {
+        final var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final var valueBytes = PaymentEventBinaryCodec.encode(paymentEvent);
+        return ByteBuffer.allocate(Integer.BYTES + keyBytes.length + valueBytes.length)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .put(valueBytes)
+                .array();
+    }
+
 }
@@ -0,0 +1,64 @@
+package com.akgarg.paymentservice.eventpublisher.kafka;
+
+import com.akgarg.paymentservice.eventpublisher.PaymentEvent;
+import com.akgarg.paymentservice.eventpublisher.PaymentEventBinaryCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a {@link PaymentEvent} as JSON or in the {@link PaymentEventBinaryCodec} format, and names the format in the
+ * {@value #CONTENT_TYPE_HEADER} record header, so consumers pick the matching decoder per record and both formats can
+ * be on the topic at the same time.
+ */
+public class PaymentEventSerializer implements Serializer<PaymentEvent> {
+
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String BINARY_CONTENT_TYPE = "application/vnd.payment-event.v" + PaymentEventBinaryCodec.SCHEMA_VERSION;
+
+    private final ObjectMapper objectMapper;
+    private final boolean binary;
+    private final byte[] contentType;
+
+    /**
+     * @param encoding {@code json} or {@code binary}
+     */
+    public PaymentEventSerializer(final ObjectMapper objectMapper, final String encoding) {
+        this.objectMapper = objectMapper;
+        this.binary = switch (encoding) {
+            case "json" -> false;
+            case "binary" -> true;
+            default -> throw new IllegalArgumentException("Unknown payment event encoding " + encoding);
+        };
+        this.contentType = (binary ? BINARY_CONTENT_TYPE : JSON_CONTENT_TYPE).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] serialize(final String topic, final Headers headers, final PaymentEvent paymentEvent) {
+        headers.remove(CONTENT_TYPE_HEADER);
+        headers.add(CONTENT_TYPE_HEADER, contentType);
+        return serialize(topic, paymentEvent);
+    }
+
+    @Override
+    public byte[] serialize(final String topic, final PaymentEvent paymentEvent) {
+        if (paymentEvent == null) {
+            return null;
+        }
+
+        if (binary) {
+            return PaymentEventBinaryCodec.encode(paymentEvent);
+        }
+
+        try {
+            return objectMapper.writeValueAsBytes(paymentEvent);
+        } catch (Exception e) {
+            throw new SerializationException("Error serializing payment event", e);
+        }
+    }
+
+}
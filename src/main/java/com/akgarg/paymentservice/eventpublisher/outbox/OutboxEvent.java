@@ -0,0 +1,68 @@
+package com.akgarg.paymentservice.eventpublisher.outbox;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import static com.akgarg.paymentservice.utils.PaymentServiceUtils.maskString;
+
+/**
+ * Event waiting to be published, stored together with the state change that produced it. {@code sentAt} stays null
+ * until {@link PaymentEventOutboxRelay} has published the event.
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@Table(name = "payment_outbox", indexes = {
+        @Index(name = "idx_payment_outbox_sent_at_id", columnList = "sent_at, id")
+})
+public class OutboxEvent {
+
+    public static final String PAYMENT_SUCCESS = "PAYMENT_SUCCESS";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "aggregate_id", nullable = false)
+    private String aggregateId;
+
+    @Column(name = "event_type", nullable = false, length = 64)
+    private String eventType;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private long createdAt;
+
+    @Column(name = "sent_at")
+    private Long sentAt;
+
+    /**
+     * Until when a relay has claimed the unsent event for publishing.
+     */
+    @Column(name = "claimed_until")
+    private Long claimedUntil;
+
+    public OutboxEvent(final String aggregateId, final String eventType, final String payload, final long createdAt) {
+        this.aggregateId = aggregateId;
+        this.eventType = eventType;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "id=" + id +
+                ", aggregateId='" + maskString(aggregateId) + '\'' +
+                ", eventType='" + eventType + '\'' +
+                ", createdAt=" + createdAt +
+                ", sentAt=" + sentAt +
+                '}';
+    }
+
+}
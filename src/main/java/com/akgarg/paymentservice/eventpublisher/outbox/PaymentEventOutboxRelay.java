@@ -0,0 +1,168 @@
+package com.akgarg.paymentservice.eventpublisher.outbox;
+
+import com.akgarg.paymentservice.eventpublisher.PaymentEvent;
+import com.akgarg.paymentservice.eventpublisher.PaymentEventPublisher;
+import com.akgarg.paymentservice.v1.db.DatabaseService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Publishes outbox events written by {@link DatabaseService#transitionStatus(String, Collection,
+ * com.akgarg.paymentservice.payment.PaymentStatus, long, Long, OutboxEvent)} in batches, and marks them as sent once the
+ * broker has acknowledged them. An event whose publish fails stays in the outbox and is retried on the next run, so
+ * every event is delivered at least once.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PaymentEventOutboxRelay {
+
+    private final DatabaseService databaseService;
+    private final PaymentEventPublisher paymentEventPublisher;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final ScheduledExecutorService relayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "payment-outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int batchSize;
+    private long publishTimeoutMillis;
+    private long retentionMillis;
+
+    private DistributionSummary batchSizeSummary;
+    private Timer lagTimer;
+    private Counter publishedEvents;
+    private Counter failedEvents;
+    private Counter discardedEvents;
+
+    @PostConstruct
+    public void init() {
+        batchSize = environment.getProperty("payment.outbox.relay.batch-size", Integer.class, 100);
+        publishTimeoutMillis = environment.getProperty("payment.outbox.relay.publish-timeout", Long.class, 10_000L);
+        retentionMillis = environment.getProperty("payment.outbox.retention", Long.class, 86_400_000L);
+        final var relayInterval = environment.getProperty("payment.outbox.relay.interval", Long.class, 500L);
+        final var purgeInterval = environment.getProperty("payment.outbox.purge-interval", Long.class, 600_000L);
+
+        batchSizeSummary = DistributionSummary.builder("payment.outbox.relay.batch.size")
+                .description("Number of outbox events claimed per relay batch")
+                .register(meterRegistry);
+        lagTimer = Timer.builder("payment.outbox.relay.lag")
+                .description("Time from writing an outbox event to its publish being acknowledged")
+                .register(meterRegistry);
+        publishedEvents = eventsCounter("published");
+        failedEvents = eventsCounter("failed");
+        discardedEvents = eventsCounter("discarded");
+
+        relayScheduler.scheduleWithFixedDelay(this::relay, relayInterval, relayInterval, TimeUnit.MILLISECONDS);
+        relayScheduler.scheduleWithFixedDelay(this::purge, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        relayScheduler.shutdownNow();
+    }
+
+    /**
+     * Drains the outbox batch by batch while whole batches are published. A short batch means the outbox is drained or
+     * some publishes failed; either way the rest waits for the next run rather than being claimed again right away.
+     */
+    private void relay() {
+        try {
+            int published;
+            do {
+                published = databaseService.relayOutboxEvents(batchSize, this::publish);
+            } while (published == batchSize && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            log.error("Failed to relay outbox events", e);
+        }
+    }
+
+    /**
+     * Sends the whole batch before waiting for any acknowledgement, so the producer can batch the records, and returns
+     * the ids of the events that were acknowledged in time.
+     */
+    private Collection<Long> publish(final List<OutboxEvent> outboxEvents) {
+        batchSizeSummary.record(outboxEvents.size());
+
+        final var completedIds = new ArrayList<Long>(outboxEvents.size());
+        final var pendingPublishes = new LinkedHashMap<OutboxEvent, CompletableFuture<Void>>();
+
+        for (final var outboxEvent : outboxEvents) {
+            try {
+                pendingPublishes.put(outboxEvent, send(outboxEvent));
+            } catch (Exception e) {
+                // retrying can't fix an event that can't be read, so it is dropped rather than blocking the outbox
+                log.error("Discarding unpublishable outbox event {}", outboxEvent, e);
+                discardedEvents.increment();
+                completedIds.add(outboxEvent.getId());
+            }
+        }
+
+        final var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(publishTimeoutMillis);
+
+        for (final var pendingPublish : pendingPublishes.entrySet()) {
+            final var outboxEvent = pendingPublish.getKey();
+
+            try {
+                pendingPublish.getValue().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                completedIds.add(outboxEvent.getId());
+                publishedEvents.increment();
+                lagTimer.record(Math.max(System.currentTimeMillis() - outboxEvent.getCreatedAt(), 0), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("Failed to publish outbox event {}, it will be retried", outboxEvent, e);
+                failedEvents.increment();
+            }
+        }
+
+        return completedIds;
+    }
+
+    private CompletableFuture<Void> send(final OutboxEvent outboxEvent) throws Exception {
+        if (OutboxEvent.PAYMENT_SUCCESS.equals(outboxEvent.getEventType())) {
+            return paymentEventPublisher.publishPaymentSuccess(objectMapper.readValue(outboxEvent.getPayload(), PaymentEvent.class));
+        }
+
+        throw new IllegalArgumentException("Unknown outbox event type " + outboxEvent.getEventType());
+    }
+
+    private void purge() {
+        try {
+            final var sentBefore = System.currentTimeMillis() - retentionMillis;
+            int purged;
+            do {
+                purged = databaseService.purgeSentOutboxEvents(sentBefore, batchSize);
+            } while (purged == batchSize && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            log.error("Failed to purge sent outbox events", e);
+        }
+    }
+
+    private Counter eventsCounter(final String result) {
+        return Counter.builder("payment.outbox.relay.events")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+}
@@ -6,14 +6,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+
 @Slf4j
 @Component
 @Profile("dev")
 public class VoidPaymentEventPublisher implements PaymentEventPublisher {
 
     @Override
-    public void publishPaymentSuccess(final PaymentEvent paymentEvent) {
+    public CompletableFuture<Void> publishPaymentSuccess(final PaymentEvent paymentEvent) {
         log.info("Publishing payment event {}", paymentEvent);
+        return CompletableFuture.completedFuture(null);
     }
 
 }
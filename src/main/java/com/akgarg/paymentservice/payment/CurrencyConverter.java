@@ -0,0 +1,42 @@
+package com.akgarg.paymentservice.payment;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.Currency;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Stores a currency as its ISO 4217 numeric code.
+ */
+@Converter
+public class CurrencyConverter implements AttributeConverter<Currency, Integer> {
+
+    private static final Map<Integer, Currency> CURRENCIES_BY_NUMERIC_CODE = Currency.getAvailableCurrencies()
+            .stream()
+            .filter(currency -> currency.getNumericCode() > 0)
+            .collect(Collectors.toUnmodifiableMap(Currency::getNumericCode, Function.identity(), (first, second) -> first));
+
+    @Override
+    public Integer convertToDatabaseColumn(final Currency currency) {
+        return currency != null ? currency.getNumericCode() : null;
+    }
+
+    @Override
+    public Currency convertToEntityAttribute(final Integer numericCode) {
+        if (numericCode == null) {
+            return null;
+        }
+
+        final var currency = CURRENCIES_BY_NUMERIC_CODE.get(numericCode);
+
+        if (currency == null) {
+            throw new IllegalArgumentException("Unknown currency numeric code " + numericCode);
+        }
+
+        return currency;
+    }
+
+}
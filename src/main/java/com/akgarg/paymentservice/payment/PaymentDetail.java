@@ -4,13 +4,16 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.Currency;
+
 import static com.akgarg.paymentservice.utils.PaymentServiceUtils.maskString;
 
 @Getter
 @Setter
 @Entity
 @Table(name = "payment_detail", indexes = {
-        @Index(name = "idx_payment_detail_user_id", columnList = "user_id")
+        @Index(name = "idx_payment_detail_user_id_status", columnList = "user_id, status_code"),
+        @Index(name = "idx_payment_detail_user_id_deleted_created_at", columnList = "user_id, is_deleted, created_at")
 })
 public final class PaymentDetail {
 
@@ -29,17 +32,23 @@ public final class PaymentDetail {
     @Column(name = "pack_id", nullable = false)
     private String packId;
 
-    @Column(name = "amount", nullable = false)
-    private Double amount;
+    /**
+     * Amount in minor units of {@link #currency}, e.g. cents for USD.
+     */
+    @Column(name = "amount_minor", nullable = false)
+    private long amountMinor;
 
-    @Column(name = "status", nullable = false)
-    private String paymentStatus;
+    @Convert(converter = PaymentStatusConverter.class)
+    @Column(name = "status_code", nullable = false)
+    private PaymentStatus paymentStatus;
 
-    @Column(name = "gateway", nullable = false)
-    private String paymentGateway;
+    @Convert(converter = PaymentGatewayConverter.class)
+    @Column(name = "gateway_code", nullable = false)
+    private PaymentGateway paymentGateway;
 
-    @Column(name = "currency", nullable = false)
-    private String currency;
+    @Convert(converter = CurrencyConverter.class)
+    @Column(name = "currency_code", nullable = false)
+    private Currency currency;
 
     @Column(name = "payment_method")
     private String paymentMethod;
@@ -56,6 +65,16 @@ public final class PaymentDetail {
     @Column(name = "is_deleted")
     private boolean deleted = false;
 
+    /**
+     * Link the payer approves a CREATED PayPal order at, handed out again on repeat checkouts until
+     * {@link #approvalExpiresAt}.
+     */
+    @Column(name = "approval_url", length = 512)
+    private String approvalUrl;
+
+    @Column(name = "approval_expires_at")
+    private Long approvalExpiresAt;
+
     @Override
     public String toString() {
         return "{" +
@@ -64,15 +83,17 @@ public final class PaymentDetail {
                 ", email='" + maskString(email) + '\'' +
                 ", name='" + maskString(name) + '\'' +
                 ", packId='" + maskString(packId) + '\'' +
-                ", amount=" + amount +
-                ", paymentStatus='" + paymentStatus + '\'' +
-                ", paymentGateway='" + paymentGateway + '\'' +
-                ", currency='" + currency + '\'' +
+                ", amountMinor=" + amountMinor +
+                ", paymentStatus=" + paymentStatus +
+                ", paymentGateway=" + paymentGateway +
+                ", currency=" + currency +
                 ", paymentMethod='" + paymentMethod + '\'' +
                 ", createdAt=" + createdAt +
                 ", updatedAt=" + updatedAt +
                 ", completedAt=" + completedAt +
                 ", deleted=" + deleted +
+                ", approvalUrl='" + maskString(approvalUrl) + '\'' +
+                ", approvalExpiresAt=" + approvalExpiresAt +
                 '}';
     }
 
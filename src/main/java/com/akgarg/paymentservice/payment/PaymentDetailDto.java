@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
 
+import static com.akgarg.paymentservice.utils.PaymentServiceUtils.toMajorUnits;
+
 @Getter
 @Setter
 public class PaymentDetailDto {
@@ -39,14 +41,28 @@ public class PaymentDetailDto {
         final var paymentDetailDto = new PaymentDetailDto();
         paymentDetailDto.setId(paymentDetail.getId());
         paymentDetailDto.setPackId(paymentDetail.getPackId());
-        paymentDetailDto.setAmount(paymentDetail.getAmount());
-        paymentDetailDto.setCurrency(paymentDetail.getCurrency());
+        paymentDetailDto.setAmount(toMajorUnits(paymentDetail.getAmountMinor(), paymentDetail.getCurrency()).doubleValue());
+        paymentDetailDto.setCurrency(paymentDetail.getCurrency().getCurrencyCode());
         paymentDetailDto.setCreatedAt(paymentDetail.getCreatedAt());
         paymentDetailDto.setUpdatedAt(paymentDetail.getUpdatedAt());
         paymentDetailDto.setPaymentMethod(paymentDetail.getPaymentMethod());
-        paymentDetailDto.setPaymentStatus(PaymentStatus.valueOf(paymentDetail.getPaymentStatus()));
+        paymentDetailDto.setPaymentStatus(paymentDetail.getPaymentStatus());
         paymentDetailDto.setCompletedAt(paymentDetail.getCompletedAt() != null ? paymentDetail.getCompletedAt() : 0);
         return paymentDetailDto;
     }
 
+    public static PaymentDetailDto fromPaymentDetailSummary(final PaymentDetailSummary paymentDetail) {
+        final var paymentDetailDto = new PaymentDetailDto();
+        paymentDetailDto.setId(paymentDetail.id());
+        paymentDetailDto.setPackId(paymentDetail.packId());
+        paymentDetailDto.setAmount(toMajorUnits(paymentDetail.amountMinor(), paymentDetail.currency()).doubleValue());
+        paymentDetailDto.setCurrency(paymentDetail.currency().getCurrencyCode());
+        paymentDetailDto.setCreatedAt(paymentDetail.createdAt());
+        paymentDetailDto.setUpdatedAt(paymentDetail.updatedAt());
+        paymentDetailDto.setPaymentMethod(paymentDetail.paymentMethod());
+        paymentDetailDto.setPaymentStatus(paymentDetail.paymentStatus());
+        paymentDetailDto.setCompletedAt(paymentDetail.completedAt() != null ? paymentDetail.completedAt() : 0);
+        return paymentDetailDto;
+    }
+
 }
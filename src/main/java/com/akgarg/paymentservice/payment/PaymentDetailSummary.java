@@ -0,0 +1,19 @@
+package com.akgarg.paymentservice.payment;
+
+import java.util.Currency;
+
+/**
+ * Read-only projection of the {@link PaymentDetail} columns exposed in the payment history.
+ */
+public record PaymentDetailSummary(
+        String id,
+        String packId,
+        long amountMinor,
+        PaymentStatus paymentStatus,
+        Currency currency,
+        String paymentMethod,
+        long createdAt,
+        long updatedAt,
+        Long completedAt
+) {
+}
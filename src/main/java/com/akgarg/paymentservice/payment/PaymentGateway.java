@@ -0,0 +1,30 @@
+package com.akgarg.paymentservice.payment;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Codes are persisted in {@code payment_detail.gateway_code} and must never be changed or reused.
+ */
+@Getter
+public enum PaymentGateway {
+
+    PAYPAL(1, "paypal");
+
+    private final int code;
+    private final String value;
+
+    PaymentGateway(final int code, final String value) {
+        this.code = code;
+        this.value = value;
+    }
+
+    public static PaymentGateway fromCode(final int code) {
+        return Arrays.stream(values())
+                .filter(gateway -> gateway.code == code)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown payment gateway code " + code));
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.akgarg.paymentservice.payment;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class PaymentGatewayConverter implements AttributeConverter<PaymentGateway, Integer> {
+
+    @Override
+    public Integer convertToDatabaseColumn(final PaymentGateway paymentGateway) {
+        return paymentGateway != null ? paymentGateway.getCode() : null;
+    }
+
+    @Override
+    public PaymentGateway convertToEntityAttribute(final Integer code) {
+        return code != null ? PaymentGateway.fromCode(code) : null;
+    }
+
+}
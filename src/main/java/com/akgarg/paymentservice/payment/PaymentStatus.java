@@ -1,11 +1,40 @@
 package com.akgarg.paymentservice.payment;
 
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Codes are persisted in {@code payment_detail.status_code} and must never be changed or reused.
+ */
+@Getter
 public enum PaymentStatus {
 
-    CREATED,
-    PROCESSING,
-    COMPLETED,
-    CANCELLED,
-    FAILED
+    CREATED(1),
+    PROCESSING(2),
+    COMPLETED(3),
+    CANCELLED(4),
+    FAILED(5);
+
+    private static final PaymentStatus[] BY_CODE = new PaymentStatus[Arrays.stream(values()).mapToInt(PaymentStatus::getCode).max().orElse(0) + 1];
+
+    static {
+        for (final var status : values()) {
+            BY_CODE[status.code] = status;
+        }
+    }
+
+    private final int code;
+
+    PaymentStatus(final int code) {
+        this.code = code;
+    }
+
+    public static PaymentStatus fromCode(final int code) {
+        if (code <= 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("Unknown payment status code " + code);
+        }
+        return BY_CODE[code];
+    }
 
 }
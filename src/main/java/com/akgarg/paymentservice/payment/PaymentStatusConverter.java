@@ -0,0 +1,19 @@
+package com.akgarg.paymentservice.payment;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class PaymentStatusConverter implements AttributeConverter<PaymentStatus, Integer> {
+
+    @Override
+    public Integer convertToDatabaseColumn(final PaymentStatus paymentStatus) {
+        return paymentStatus != null ? paymentStatus.getCode() : null;
+    }
+
+    @Override
+    public PaymentStatus convertToEntityAttribute(final Integer code) {
+        return code != null ? PaymentStatus.fromCode(code) : null;
+    }
+
+}
@@ -5,6 +5,8 @@ import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.HttpStatus;
 import org.springframework.validation.BindingResult;
 
+import java.math.BigDecimal;
+import java.util.Currency;
 import java.util.Random;
 
 /**
@@ -60,4 +62,21 @@ public final class PaymentServiceUtils {
         return new String(maskedArray);
     }
 
+    /**
+     * Converts a decimal amount such as {@code "10.50"} to minor units of the currency ({@code 1050} for USD).
+     *
+     * @throws ArithmeticException if the amount has more decimals than the currency allows
+     */
+    public static long toMinorUnits(final String amount, final Currency currency) {
+        return new BigDecimal(amount).movePointRight(fractionDigits(currency)).longValueExact();
+    }
+
+    public static BigDecimal toMajorUnits(final long amountMinor, final Currency currency) {
+        return BigDecimal.valueOf(amountMinor, fractionDigits(currency));
+    }
+
+    private static int fractionDigits(final Currency currency) {
+        return Math.max(currency.getDefaultFractionDigits(), 0);
+    }
+
 }
\ No newline at end of file
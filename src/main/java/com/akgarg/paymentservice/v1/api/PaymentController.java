@@ -27,7 +27,9 @@ public class PaymentController {
     @GetMapping("/history")
     public ResponseEntity<PaymentHistoryResponse> getAllPaymentDetails(
             @RequestHeader(USER_ID_HEADER) final String userIdFromHeader,
-            @RequestParam("userId") final String userId
+            @RequestParam("userId") final String userId,
+            @RequestParam(value = "cursor", required = false) final String cursor,
+            @RequestParam(value = "limit", required = false) final Integer limit
     ) {
         if (!userIdFromHeader.equals(userId)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
@@ -38,7 +40,7 @@ public class PaymentController {
                             .build());
         }
 
-        final var response = paymentService.getPaymentHistory(userId);
+        final var response = paymentService.getPaymentHistory(userId, cursor, limit);
         return ResponseEntity.status(response.getStatusCode()).body(response);
     }
 
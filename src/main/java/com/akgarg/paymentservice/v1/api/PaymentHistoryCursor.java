@@ -0,0 +1,41 @@
+package com.akgarg.paymentservice.v1.api;
+
+import com.akgarg.paymentservice.exception.BadRequestException;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position in a user's payment history, encoded for clients as an opaque string. The next page starts strictly after
+ * the payment with this {@code (createdAt, id)}.
+ */
+record PaymentHistoryCursor(long createdAt, String id) {
+
+    static final PaymentHistoryCursor START = new PaymentHistoryCursor(Long.MIN_VALUE, "");
+
+    static PaymentHistoryCursor after(final PaymentDetailSummary paymentDetail) {
+        return new PaymentHistoryCursor(paymentDetail.createdAt(), paymentDetail.id());
+    }
+
+    static PaymentHistoryCursor decode(final String cursor) {
+        try {
+            final var decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            final var separatorIndex = decoded.indexOf(':');
+            return new PaymentHistoryCursor(
+                    Long.parseLong(decoded.substring(0, separatorIndex)),
+                    decoded.substring(separatorIndex + 1)
+            );
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new BadRequestException(List.of("Invalid cursor"));
+        }
+    }
+
+    String encode() {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString((createdAt + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -1,15 +1,20 @@
 package com.akgarg.paymentservice.v1.api;
 
+import com.akgarg.paymentservice.exception.BadRequestException;
 import com.akgarg.paymentservice.payment.PaymentDetailDto;
 import com.akgarg.paymentservice.v1.api.response.PaymentDetailResponse;
 import com.akgarg.paymentservice.v1.api.response.PaymentHistoryResponse;
 import com.akgarg.paymentservice.v1.db.DatabaseService;
+import jakarta.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
-import java.util.Comparator;
+import java.util.List;
+
+import static com.akgarg.paymentservice.v1.api.PaymentHistoryCursor.START;
 
 @Slf4j
 @Service
@@ -17,6 +22,7 @@ import java.util.Comparator;
 public class PaymentService {
 
     private final DatabaseService databaseService;
+    private final Environment environment;
 
     public PaymentDetailResponse getPaymentDetailById(final String userId, final String paymentId) {
         log.info("Getting payment for payment id {}", paymentId);
@@ -37,21 +43,36 @@ public class PaymentService {
                 .build();
     }
 
-    public PaymentHistoryResponse getPaymentHistory(final String userId) {
+    public PaymentHistoryResponse getPaymentHistory(final String userId, @Nullable final String cursor, @Nullable final Integer limit) {
         log.info("Getting payment history for userId {}", userId);
 
-        final var paymentDetails = databaseService.getAllPaymentDetails(userId)
-                .stream()
-                .filter(paymentDetail -> !paymentDetail.isDeleted())
-                .map(PaymentDetailDto::fromPaymentDetail)
-                .sorted(Comparator.comparing(PaymentDetailDto::getCreatedAt))
-                .toList();
+        final var after = cursor != null ? PaymentHistoryCursor.decode(cursor) : START;
+        final var pageSize = pageSize(limit);
+
+        // one extra row tells whether another page exists
+        final var paymentDetails = databaseService.getPaymentHistory(userId, after.createdAt(), after.id(), pageSize + 1);
+        final var page = paymentDetails.size() > pageSize ? paymentDetails.subList(0, pageSize) : paymentDetails;
 
         return PaymentHistoryResponse.builder()
                 .message("Payment history fetched successfully")
                 .statusCode(HttpStatus.OK.value())
-                .payments(paymentDetails)
+                .payments(page.stream().map(PaymentDetailDto::fromPaymentDetailSummary).toList())
+                .nextCursor(paymentDetails.size() > pageSize ? PaymentHistoryCursor.after(page.getLast()).encode() : null)
                 .build();
     }
 
+    private int pageSize(@Nullable final Integer limit) {
+        final var maxPageSize = environment.getProperty("payment.history.page-size.max", Integer.class, 200);
+
+        if (limit == null) {
+            return Math.min(environment.getProperty("payment.history.page-size.default", Integer.class, 50), maxPageSize);
+        }
+
+        if (limit < 1 || limit > maxPageSize) {
+            throw new BadRequestException(List.of("limit must be between 1 and " + maxPageSize));
+        }
+
+        return limit;
+    }
+
 }
@@ -23,4 +23,7 @@ public class PaymentHistoryResponse {
     @JsonProperty("payments")
     private Collection<PaymentDetailDto> payments;
 
+    @JsonProperty("next_cursor")
+    private String nextCursor;
+
 }
@@ -0,0 +1,196 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
+import com.akgarg.paymentservice.exception.DatabaseException;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of single payments in front of the {@link DatabaseService} of the active profile, which is marked
+ * with {@link #STORAGE_QUALIFIER}. Everything but {@link #getPaymentDetails(String)} goes straight to it.
+ * <p>
+ * Each write drops the payment from this instance's cache once it has been applied, and is announced on the
+ * {@link PaymentDetailInvalidationBus} so other instances drop it too. Entries of payments that may still change
+ * expire after {@code payment.detail-cache.expiration} milliseconds, which bounds staleness when an invalidation is
+ * lost; completed and cancelled payments no longer change status and are kept for
+ * {@code payment.detail-cache.final-expiration}. Status changes are conditional updates in the database, so a stale
+ * status read from the cache can make a transition fail but never apply twice.
+ * <p>
+ * Callers get copies, as they modify the payments they read.
+ */
+@Slf4j
+@Service
+@Primary
+public class CachingDatabaseService implements DatabaseService {
+
+    public static final String STORAGE_QUALIFIER = "paymentStorage";
+
+    private static final String PAYMENT_DETAIL_CACHE_NAME = "payment.detail";
+    private static final Set<PaymentStatus> FINAL_STATUSES = EnumSet.of(PaymentStatus.COMPLETED, PaymentStatus.CANCELLED);
+
+    private final DatabaseService delegate;
+    private final PaymentDetailInvalidationBus paymentDetailInvalidationBus;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private boolean enabled;
+    private Cache<String, PaymentDetail> paymentDetails;
+
+    public CachingDatabaseService(@Qualifier(STORAGE_QUALIFIER) final DatabaseService delegate,
+                                  final PaymentDetailInvalidationBus paymentDetailInvalidationBus,
+                                  final MeterRegistry meterRegistry,
+                                  final Environment environment) {
+        this.delegate = delegate;
+        this.paymentDetailInvalidationBus = paymentDetailInvalidationBus;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void init() {
+        enabled = environment.getProperty("payment.detail-cache.enabled", Boolean.class, true);
+
+        if (!enabled) {
+            log.info("Payment detail cache is disabled");
+            return;
+        }
+
+        final var expiration = Duration.ofMillis(environment.getProperty("payment.detail-cache.expiration", Long.class, 5_000L));
+        final var finalExpiration = Duration.ofMillis(environment.getProperty("payment.detail-cache.final-expiration", Long.class, 3_600_000L));
+
+        paymentDetails = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(environment.getProperty("payment.detail-cache.maximum-size", Long.class, 10_000L))
+                        .expireAfter(Expiry.<String, PaymentDetail>writing((paymentId, paymentDetail) ->
+                                FINAL_STATUSES.contains(paymentDetail.getPaymentStatus()) ? finalExpiration : expiration))
+                        .recordStats()
+                        .build(),
+                PAYMENT_DETAIL_CACHE_NAME);
+
+        paymentDetailInvalidationBus.subscribe(paymentDetails::invalidate);
+    }
+
+    @Override
+    public PaymentDetail savePaymentDetails(final PaymentDetail paymentDetail) throws DatabaseException {
+        try {
+            return delegate.savePaymentDetails(paymentDetail);
+        } finally {
+            invalidate(paymentDetail.getId(), true);
+        }
+    }
+
+    @Override
+    public PaymentDetail updatePaymentDetails(final PaymentDetail paymentDetail) throws DatabaseException {
+        try {
+            return delegate.updatePaymentDetails(paymentDetail);
+        } finally {
+            invalidate(paymentDetail.getId(), true);
+        }
+    }
+
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt) throws DatabaseException {
+        var transitioned = false;
+        try {
+            transitioned = delegate.transitionStatus(paymentId, expectedStatuses, newStatus, updatedAt, completedAt);
+            return transitioned;
+        } finally {
+            // a failed transition means the cached status may be stale, only this instance needs to reread it
+            invalidate(paymentId, transitioned);
+        }
+    }
+
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt,
+                                    final OutboxEvent outboxEvent) throws DatabaseException {
+        var transitioned = false;
+        try {
+            transitioned = delegate.transitionStatus(paymentId, expectedStatuses, newStatus, updatedAt, completedAt, outboxEvent);
+            return transitioned;
+        } finally {
+            invalidate(paymentId, transitioned);
+        }
+    }
+
+    @Override
+    public Optional<PaymentDetail> getPaymentDetails(final String paymentId) throws DatabaseException {
+        if (!enabled) {
+            return delegate.getPaymentDetails(paymentId);
+        }
+
+        // a load in progress finishes before a concurrent invalidation of the same id removes its result
+        final var paymentDetail = paymentDetails.get(paymentId, id -> delegate.getPaymentDetails(id).orElse(null));
+        return Optional.ofNullable(paymentDetail).map(PaymentDetailStore::copy);
+    }
+
+    @Override
+    public List<PaymentDetail> getPaymentDetailForUserByPaymentStatus(final String userId,
+                                                                      final Collection<PaymentStatus> statuses) throws DatabaseException {
+        return delegate.getPaymentDetailForUserByPaymentStatus(userId, statuses);
+    }
+
+    @Override
+    public List<PaymentDetail> getAllPaymentDetails(final String userId) throws DatabaseException {
+        return delegate.getAllPaymentDetails(userId);
+    }
+
+    @Override
+    public List<PaymentDetailSummary> getPaymentHistory(final String userId,
+                                                        final long afterCreatedAt,
+                                                        final String afterId,
+                                                        final int limit) throws DatabaseException {
+        return delegate.getPaymentHistory(userId, afterCreatedAt, afterId, limit);
+    }
+
+    @Override
+    public int relayOutboxEvents(final int limit,
+                                 final Function<List<OutboxEvent>, Collection<Long>> publisher) throws DatabaseException {
+        return delegate.relayOutboxEvents(limit, publisher);
+    }
+
+    @Override
+    public int purgeSentOutboxEvents(final long sentBefore, final int limit) throws DatabaseException {
+        return delegate.purgeSentOutboxEvents(sentBefore, limit);
+    }
+
+    private void invalidate(final String paymentId, final boolean changed) {
+        if (!enabled || paymentId == null) {
+            return;
+        }
+
+        paymentDetails.invalidate(paymentId);
+
+        if (changed) {
+            paymentDetailInvalidationBus.publish(paymentId);
+        }
+    }
+
+}
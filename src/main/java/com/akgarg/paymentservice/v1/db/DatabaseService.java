@@ -1,12 +1,15 @@
 package com.akgarg.paymentservice.v1.db;
 
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
 import com.akgarg.paymentservice.exception.DatabaseException;
 import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
 import com.akgarg.paymentservice.payment.PaymentStatus;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 /**
  * @author Akhilesh Garg
@@ -18,10 +21,56 @@ public interface DatabaseService {
 
     PaymentDetail updatePaymentDetails(PaymentDetail paymentDetail) throws DatabaseException;
 
+    /**
+     * Moves a payment to {@code newStatus} only if its current status is one of {@code expectedStatuses}, in a single
+     * conditional update. {@code completedAt} is left unchanged when null.
+     *
+     * @return true if this call performed the transition, false if the payment is missing or in another status
+     */
+    boolean transitionStatus(String paymentId,
+                             Collection<PaymentStatus> expectedStatuses,
+                             PaymentStatus newStatus,
+                             long updatedAt,
+                             Long completedAt) throws DatabaseException;
+
+    /**
+     * Same as {@link #transitionStatus(String, Collection, PaymentStatus, long, Long)}, and if the transition happens
+     * also stores {@code outboxEvent} atomically with it, so the event is eventually published exactly when the new
+     * status is persisted.
+     */
+    boolean transitionStatus(String paymentId,
+                             Collection<PaymentStatus> expectedStatuses,
+                             PaymentStatus newStatus,
+                             long updatedAt,
+                             Long completedAt,
+                             OutboxEvent outboxEvent) throws DatabaseException;
+
     Optional<PaymentDetail> getPaymentDetails(String paymentId) throws DatabaseException;
 
     List<PaymentDetail> getPaymentDetailForUserByPaymentStatus(String userId, Collection<PaymentStatus> statuses) throws DatabaseException;
 
     List<PaymentDetail> getAllPaymentDetails(String userId) throws DatabaseException;
 
+    /**
+     * Returns up to {@code limit} non-deleted payments of the user ordered by {@code (createdAt, id)}, starting strictly
+     * after the given position.
+     */
+    List<PaymentDetailSummary> getPaymentHistory(String userId, long afterCreatedAt, String afterId, int limit) throws DatabaseException;
+
+    /**
+     * Claims up to {@code limit} unsent outbox events in insertion order and passes them to {@code publisher}, which
+     * returns the ids of the events it published. Those are marked as sent, the rest are offered again on a later call.
+     * Events claimed by a concurrent call, possibly on another instance, are skipped.
+     *
+     * @return number of events marked as sent
+     */
+    int relayOutboxEvents(int limit, Function<List<OutboxEvent>, Collection<Long>> publisher) throws DatabaseException;
+
+    /**
+     * Deletes up to {@code limit} outbox events sent before {@code sentBefore}.
+     *
+     * @return number of events deleted
+     */
+    int purgeSentOutboxEvents(long sentBefore, int limit) throws DatabaseException;
+
 }
@@ -0,0 +1,403 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
+import com.akgarg.paymentservice.exception.DatabaseException;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+import static com.akgarg.paymentservice.utils.PaymentServiceUtils.maskString;
+
+/**
+ * Durable single-node database for installs without MySQL. Every change is appended as a full image of the payment to
+ * a {@link WriteAheadLog} and acknowledged once the log is forced to disk. The log is periodically compacted into a
+ * snapshot of all payments and unsent outbox events, after which older log segments are deleted. On startup the latest
+ * snapshot is loaded, the log written after it is replayed, and the in-memory indexes are rebuilt from the result.
+ * <p>
+ * If a log flush fails, the database turns read-only and reports DOWN health until restarted. Writes waiting for that
+ * flush fail, but are already visible to reads; later writes are rejected before changing anything.
+ */
+@Slf4j
+@Service
+@Qualifier(CachingDatabaseService.STORAGE_QUALIFIER)
+@Profile("embedded")
+@RequiredArgsConstructor
+public class EmbeddedDatabaseService implements DatabaseService, HealthIndicator {
+
+    private static final String SNAPSHOT_FILE_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_FILE_SUFFIX = ".dat";
+    private static final int SNAPSHOT_MAGIC = 0x50415953;
+
+    private static final Runnable NO_ACTION = () -> {
+    };
+
+    private final Environment environment;
+
+    // writers hold the read lock while appending, so a snapshot roll sees no half-applied writes
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "embedded-db-snapshotter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PaymentDetailStore paymentDetailStore = new PaymentDetailStore(0);
+    private final OutboxEventStore outboxEventStore = new OutboxEventStore();
+    private Path directory;
+    private WriteAheadLog writeAheadLog;
+    private long snapshotMinimumLogSize;
+    private volatile long logSizeAtLastSnapshot;
+
+    @PostConstruct
+    public void init() throws IOException {
+        directory = Path.of(environment.getProperty("payment.embedded-db.directory", "data/payments"));
+        snapshotMinimumLogSize = environment.getProperty("payment.embedded-db.snapshot.minimum-log-size", Long.class, 16L * 1024 * 1024);
+        final var segmentSize = environment.getProperty("payment.embedded-db.segment-size", Integer.class, 64 * 1024 * 1024);
+        final var snapshotInterval = environment.getProperty("payment.embedded-db.snapshot.interval", Long.class, 60_000L);
+
+        final var startTime = System.nanoTime();
+        Files.createDirectories(directory);
+
+        final var snapshotSequence = loadLatestSnapshot();
+        writeAheadLog = WriteAheadLog.open(directory, segmentSize, snapshotSequence, this::restore);
+
+        log.info("Recovered {} payments and {} unsent outbox events from {} in {} ms",
+                paymentDetailStore.size(), outboxEventStore.values().size(), directory.toAbsolutePath(), (System.nanoTime() - startTime) / 1_000_000);
+
+        snapshotScheduler.scheduleWithFixedDelay(this::snapshotIfNeeded, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        snapshotScheduler.shutdownNow();
+        writeAheadLog.close();
+    }
+
+    @Override
+    public PaymentDetail savePaymentDetails(final PaymentDetail paymentDetail) throws DatabaseException {
+        log.info("Saving payment detail {}", paymentDetail);
+
+        return durably(beforeWrite -> {
+            paymentDetailStore.insert(paymentDetail, beforeWrite);
+            return paymentDetail;
+        }, EmbeddedRecordCodec::encode, NO_ACTION);
+    }
+
+    @Override
+    public PaymentDetail updatePaymentDetails(final PaymentDetail paymentDetail) throws DatabaseException {
+        log.info("Updating payment detail: {}", paymentDetail);
+
+        paymentDetail.setUpdatedAt(System.currentTimeMillis());
+
+        return durably(beforeWrite -> {
+            paymentDetailStore.update(paymentDetail, beforeWrite);
+            return paymentDetail;
+        }, EmbeddedRecordCodec::encode, NO_ACTION);
+    }
+
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt) throws DatabaseException {
+        log.info("Transitioning payment {} from {} to {}", maskString(paymentId), expectedStatuses, newStatus);
+
+        return durably(beforeWrite -> paymentDetailStore.transitionStatus(
+                paymentId, expectedStatuses, newStatus, updatedAt, completedAt, beforeWrite), EmbeddedRecordCodec::encode, NO_ACTION);
+    }
+
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt,
+                                    final OutboxEvent outboxEvent) throws DatabaseException {
+        log.info("Transitioning payment {} from {} to {} with outbox event {}", maskString(paymentId), expectedStatuses, newStatus, outboxEvent.getEventType());
+
+        final var storedOutboxEvent = outboxEventStore.withNextId(outboxEvent);
+
+        // the event is only handed to the relay once the transition is durable, so it is never published for a lost write
+        return durably(beforeWrite -> paymentDetailStore.transitionStatus(
+                        paymentId, expectedStatuses, newStatus, updatedAt, completedAt, beforeWrite),
+                paymentDetail -> EmbeddedRecordCodec.encode(paymentDetail, storedOutboxEvent),
+                () -> outboxEventStore.add(storedOutboxEvent));
+    }
+
+    @Override
+    public Optional<PaymentDetail> getPaymentDetails(final String paymentId) throws DatabaseException {
+        log.info("Getting payment detail for payment id {}", maskString(paymentId));
+        return paymentDetailStore.get(paymentId).filter(paymentDetail -> !paymentDetail.isDeleted());
+    }
+
+    @Override
+    public List<PaymentDetail> getPaymentDetailForUserByPaymentStatus(final String userId, final Collection<PaymentStatus> statuses) throws DatabaseException {
+        log.info("Getting payment detail for user id {} for payment status {}", userId, statuses);
+        return paymentDetailStore.findByUserAndStatuses(userId, statuses);
+    }
+
+    @Override
+    public List<PaymentDetail> getAllPaymentDetails(final String userId) throws DatabaseException {
+        log.info("Getting payment details for userId {}", userId);
+        return paymentDetailStore.findByUser(userId);
+    }
+
+    @Override
+    public List<PaymentDetailSummary> getPaymentHistory(final String userId,
+                                                        final long afterCreatedAt,
+                                                        final String afterId,
+                                                        final int limit) throws DatabaseException {
+        log.info("Getting payment history for userId {} after {}", userId, afterCreatedAt);
+        return paymentDetailStore.findHistory(userId, afterCreatedAt, afterId, limit);
+    }
+
+    @Override
+    public int relayOutboxEvents(final int limit, final Function<List<OutboxEvent>, Collection<Long>> publisher) throws DatabaseException {
+        return outboxEventStore.relay(limit, publisher, ids -> {
+            snapshotLock.readLock().lock();
+            try {
+                writeAheadLog.awaitDurable(writeAheadLog.append(EmbeddedRecordCodec.encodeSentOutboxEvents(ids)));
+            } catch (IOException e) {
+                throw new DatabaseException("Failed to mark outbox events as sent", e);
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public int purgeSentOutboxEvents(final long sentBefore, final int limit) throws DatabaseException {
+        // sent events are dropped from the log at the next snapshot
+        return 0;
+    }
+
+    @Override
+    public Health health() {
+        final var flushFailure = writeAheadLog.flushFailure();
+
+        if (flushFailure != null) {
+            return Health.down(flushFailure).withDetail("mode", "read-only").build();
+        }
+
+        return Health.up().withDetail("directory", directory.toAbsolutePath().toString()).build();
+    }
+
+    /**
+     * Runs a store write that logs the new payment state, waits until the log record is on disk, then runs
+     * {@code afterDurable} if the write happened. Concurrent writers wait for the same flush. The snapshot lock is held
+     * throughout, so a snapshot never misses state whose log record it is about to delete.
+     */
+    private <T> T durably(final Function<Consumer<PaymentDetail>, T> write,
+                          final Function<PaymentDetail, byte[]> encoder,
+                          final Runnable afterDurable) {
+        final var logOffset = new long[1];
+        final var flushFailure = writeAheadLog.flushFailure();
+
+        if (flushFailure != null) {
+            throw new DatabaseException("Embedded database is read-only after a failed write-ahead log flush", flushFailure);
+        }
+
+        snapshotLock.readLock().lock();
+        try {
+            final var result = write.apply(paymentDetail -> {
+                try {
+                    logOffset[0] = writeAheadLog.append(encoder.apply(paymentDetail));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            if (logOffset[0] > 0) {
+                writeAheadLog.awaitDurable(logOffset[0]);
+                afterDurable.run();
+            }
+
+            return result;
+        } catch (UncheckedIOException e) {
+            throw new DatabaseException("Failed to write payment detail to the write-ahead log", e.getCause());
+        } catch (IOException e) {
+            throw new DatabaseException("Failed to flush the write-ahead log", e);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void restore(final ByteBuffer payload) {
+        restore(EmbeddedRecordCodec.decode(payload));
+    }
+
+    private void restore(final EmbeddedRecordCodec.EmbeddedRecord embeddedRecord) {
+        if (embeddedRecord.paymentDetail() != null) {
+            paymentDetailStore.restore(embeddedRecord.paymentDetail());
+        }
+        if (embeddedRecord.outboxEvent() != null) {
+            outboxEventStore.add(embeddedRecord.outboxEvent());
+        }
+        outboxEventStore.remove(embeddedRecord.sentOutboxEventIds());
+    }
+
+    private void snapshotIfNeeded() {
+        if (writeAheadLog.appendedBytes() - logSizeAtLastSnapshot < snapshotMinimumLogSize) {
+            return;
+        }
+
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.error("Failed to write embedded database snapshot", e);
+        }
+    }
+
+    /**
+     * Starts a new log segment and writes all payments and unsent outbox events to a snapshot named after it. Every write in older segments is
+     * already visible in the store, and writes racing with the snapshot are replayed again from the new segment, which
+     * is harmless because every record is a full image.
+     */
+    void snapshot() throws IOException {
+        final var startTime = System.nanoTime();
+        final long segmentSequence;
+        final long logSize;
+
+        snapshotLock.writeLock().lock();
+        try {
+            segmentSequence = writeAheadLog.roll();
+            logSize = writeAheadLog.appendedBytes();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        final var snapshotPath = snapshotPath(segmentSequence);
+        final var temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        final var records = new ArrayList<byte[]>();
+        paymentDetailStore.values().forEach(paymentDetail -> records.add(EmbeddedRecordCodec.encode(paymentDetail)));
+        outboxEventStore.values().forEach(outboxEvent -> records.add(EmbeddedRecordCodec.encode(outboxEvent)));
+
+        try (final var channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             final var output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeLong(segmentSequence);
+            output.writeInt(records.size());
+
+            for (final var payload : records) {
+                final var crc = new CRC32C();
+                crc.update(payload);
+                output.writeInt(payload.length);
+                output.writeInt((int) crc.getValue());
+                output.write(payload);
+            }
+
+            output.flush();
+            channel.force(true);
+        }
+
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.syncDirectory(directory);
+
+        writeAheadLog.deleteSegmentsBefore(segmentSequence);
+        for (final var sequence : listSnapshotSequences()) {
+            if (sequence < segmentSequence) {
+                Files.deleteIfExists(snapshotPath(sequence));
+            }
+        }
+
+        logSizeAtLastSnapshot = logSize;
+        log.info("Wrote snapshot of {} records in {} ms", records.size(), (System.nanoTime() - startTime) / 1_000_000);
+    }
+
+    /**
+     * Loads the newest snapshot into the store and returns the first log segment written after it. Older snapshots and
+     * the log segments before the newest one are deleted once it is written, so an unreadable newest snapshot can't be
+     * recovered from and fails startup rather than starting with only the tail of the log.
+     */
+    private long loadLatestSnapshot() throws IOException {
+        final var sequences = listSnapshotSequences();
+
+        if (sequences.isEmpty()) {
+            return 0;
+        }
+
+        final var sequence = sequences.getLast();
+
+        try (final var channel = FileChannel.open(snapshotPath(sequence), StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final var records = readSnapshot(buffer, sequence);
+            records.forEach(this::restore);
+            log.info("Loaded snapshot {} with {} records", sequence, records.size());
+            return sequence;
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Embedded database snapshot %d in %s is unreadable".formatted(sequence, directory.toAbsolutePath()), e);
+        }
+    }
+
+    private static List<EmbeddedRecordCodec.EmbeddedRecord> readSnapshot(final ByteBuffer buffer, final long expectedSequence) throws IOException {
+        if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getLong() != expectedSequence) {
+            throw new IOException("Invalid snapshot header");
+        }
+
+        final var count = buffer.getInt();
+        final var records = new ArrayList<EmbeddedRecordCodec.EmbeddedRecord>(count);
+
+        for (int i = 0; i < count; i++) {
+            final var length = buffer.getInt();
+            final var checksum = buffer.getInt();
+            final var payload = buffer.slice(buffer.position(), length);
+            final var crc = new CRC32C();
+            crc.update(payload.duplicate());
+
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Snapshot record %d is corrupted".formatted(i));
+            }
+
+            records.add(EmbeddedRecordCodec.decode(payload));
+            buffer.position(buffer.position() + length);
+        }
+
+        return records;
+    }
+
+    private List<Long> listSnapshotSequences() throws IOException {
+        try (final var files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SNAPSHOT_FILE_PREFIX) && name.endsWith(SNAPSHOT_FILE_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SNAPSHOT_FILE_PREFIX.length(), name.length() - SNAPSHOT_FILE_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path snapshotPath(final long sequence) {
+        return directory.resolve("%s%020d%s".formatted(SNAPSHOT_FILE_PREFIX, sequence, SNAPSHOT_FILE_SUFFIX));
+    }
+
+}
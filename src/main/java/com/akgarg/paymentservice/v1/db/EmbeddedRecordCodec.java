@@ -0,0 +1,225 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
+import com.akgarg.paymentservice.payment.CurrencyConverter;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentGateway;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary records written to the embedded database's log and snapshots. The first byte is the record type and each
+ * encoded {@link PaymentDetail} starts with a format version, so the layout can evolve without rewriting existing
+ * files.
+ */
+final class EmbeddedRecordCodec {
+
+    private static final byte PAYMENT_DETAIL = 1;
+    private static final byte PAYMENT_DETAIL_WITH_OUTBOX_EVENT = 2;
+    private static final byte OUTBOX_EVENT = 3;
+    private static final byte OUTBOX_EVENTS_SENT = 4;
+
+    // version 2 appends the approval link and its expiry
+    private static final byte PAYMENT_DETAIL_VERSION = 2;
+    private static final byte PAYMENT_DETAIL_VERSION_WITHOUT_APPROVAL = 1;
+    private static final int NULL_LENGTH = -1;
+    private static final CurrencyConverter CURRENCY_CONVERTER = new CurrencyConverter();
+
+    private EmbeddedRecordCodec() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Decoded record. Depending on its type, any of the fields may be null or empty.
+     */
+    record EmbeddedRecord(PaymentDetail paymentDetail, OutboxEvent outboxEvent, List<Long> sentOutboxEventIds) {
+    }
+
+    static byte[] encode(final PaymentDetail paymentDetail) {
+        final var encodedPaymentDetail = encodePaymentDetail(paymentDetail);
+        return ByteBuffer.allocate(1 + encodedPaymentDetail.length)
+                .put(PAYMENT_DETAIL)
+                .put(encodedPaymentDetail)
+                .array();
+    }
+
+    /**
+     * Encodes a payment change together with the outbox event it produced, so both are recovered or neither is.
+     */
+    static byte[] encode(final PaymentDetail paymentDetail, final OutboxEvent outboxEvent) {
+        final var encodedPaymentDetail = encodePaymentDetail(paymentDetail);
+        final var encodedOutboxEvent = encodeOutboxEvent(outboxEvent);
+        return ByteBuffer.allocate(1 + encodedPaymentDetail.length + encodedOutboxEvent.length)
+                .put(PAYMENT_DETAIL_WITH_OUTBOX_EVENT)
+                .put(encodedPaymentDetail)
+                .put(encodedOutboxEvent)
+                .array();
+    }
+
+    static byte[] encode(final OutboxEvent outboxEvent) {
+        final var encodedOutboxEvent = encodeOutboxEvent(outboxEvent);
+        return ByteBuffer.allocate(1 + encodedOutboxEvent.length)
+                .put(OUTBOX_EVENT)
+                .put(encodedOutboxEvent)
+                .array();
+    }
+
+    static byte[] encodeSentOutboxEvents(final Collection<Long> ids) {
+        final var buffer = ByteBuffer.allocate(1 + Integer.BYTES + ids.size() * Long.BYTES)
+                .put(OUTBOX_EVENTS_SENT)
+                .putInt(ids.size());
+        ids.forEach(buffer::putLong);
+        return buffer.array();
+    }
+
+    static EmbeddedRecord decode(final ByteBuffer buffer) {
+        final var type = buffer.get();
+
+        return switch (type) {
+            case PAYMENT_DETAIL -> new EmbeddedRecord(decodePaymentDetail(buffer), null, List.of());
+            case PAYMENT_DETAIL_WITH_OUTBOX_EVENT ->
+                    new EmbeddedRecord(decodePaymentDetail(buffer), decodeOutboxEvent(buffer), List.of());
+            case OUTBOX_EVENT -> new EmbeddedRecord(null, decodeOutboxEvent(buffer), List.of());
+            case OUTBOX_EVENTS_SENT -> {
+                final var count = buffer.getInt();
+                final var ids = new ArrayList<Long>(count);
+                for (int i = 0; i < count; i++) {
+                    ids.add(buffer.getLong());
+                }
+                yield new EmbeddedRecord(null, null, ids);
+            }
+            default -> throw new IllegalStateException("Unsupported embedded database record type " + type);
+        };
+    }
+
+    private static byte[] encodePaymentDetail(final PaymentDetail paymentDetail) {
+        final var id = bytes(paymentDetail.getId());
+        final var userId = bytes(paymentDetail.getUserId());
+        final var email = bytes(paymentDetail.getEmail());
+        final var name = bytes(paymentDetail.getName());
+        final var packId = bytes(paymentDetail.getPackId());
+        final var paymentMethod = bytes(paymentDetail.getPaymentMethod());
+        final var approvalUrl = bytes(paymentDetail.getApprovalUrl());
+
+        final var size = 1 + sizeOf(id) + sizeOf(userId) + sizeOf(email) + sizeOf(name) + sizeOf(packId) + sizeOf(paymentMethod)
+                + Long.BYTES + 1 + 1 + Short.BYTES + 3 * Long.BYTES + 1 + 1
+                + sizeOf(approvalUrl) + 1 + Long.BYTES;
+        final var buffer = ByteBuffer.allocate(size);
+
+        buffer.put(PAYMENT_DETAIL_VERSION);
+        putBytes(buffer, id);
+        putBytes(buffer, userId);
+        putBytes(buffer, email);
+        putBytes(buffer, name);
+        putBytes(buffer, packId);
+        putBytes(buffer, paymentMethod);
+        buffer.putLong(paymentDetail.getAmountMinor());
+        buffer.put((byte) paymentDetail.getPaymentStatus().getCode());
+        buffer.put((byte) paymentDetail.getPaymentGateway().getCode());
+        buffer.putShort(CURRENCY_CONVERTER.convertToDatabaseColumn(paymentDetail.getCurrency()).shortValue());
+        buffer.putLong(paymentDetail.getCreatedAt());
+        buffer.putLong(paymentDetail.getUpdatedAt());
+        buffer.put((byte) (paymentDetail.getCompletedAt() != null ? 1 : 0));
+        buffer.putLong(paymentDetail.getCompletedAt() != null ? paymentDetail.getCompletedAt() : 0);
+        buffer.put((byte) (paymentDetail.isDeleted() ? 1 : 0));
+        putBytes(buffer, approvalUrl);
+        buffer.put((byte) (paymentDetail.getApprovalExpiresAt() != null ? 1 : 0));
+        buffer.putLong(paymentDetail.getApprovalExpiresAt() != null ? paymentDetail.getApprovalExpiresAt() : 0);
+
+        return buffer.array();
+    }
+
+    private static PaymentDetail decodePaymentDetail(final ByteBuffer buffer) {
+        final var version = buffer.get();
+
+        if (version != PAYMENT_DETAIL_VERSION && version != PAYMENT_DETAIL_VERSION_WITHOUT_APPROVAL) {
+            throw new IllegalStateException("Unsupported payment detail record version " + version);
+        }
+
+        final var paymentDetail = new PaymentDetail();
+        paymentDetail.setId(getString(buffer));
+        paymentDetail.setUserId(getString(buffer));
+        paymentDetail.setEmail(getString(buffer));
+        paymentDetail.setName(getString(buffer));
+        paymentDetail.setPackId(getString(buffer));
+        paymentDetail.setPaymentMethod(getString(buffer));
+        paymentDetail.setAmountMinor(buffer.getLong());
+        paymentDetail.setPaymentStatus(PaymentStatus.fromCode(buffer.get()));
+        paymentDetail.setPaymentGateway(PaymentGateway.fromCode(buffer.get()));
+        paymentDetail.setCurrency(CURRENCY_CONVERTER.convertToEntityAttribute((int) buffer.getShort()));
+        paymentDetail.setCreatedAt(buffer.getLong());
+        paymentDetail.setUpdatedAt(buffer.getLong());
+        final var hasCompletedAt = buffer.get() == 1;
+        final var completedAt = buffer.getLong();
+        paymentDetail.setCompletedAt(hasCompletedAt ? completedAt : null);
+        paymentDetail.setDeleted(buffer.get() == 1);
+
+        if (version != PAYMENT_DETAIL_VERSION_WITHOUT_APPROVAL) {
+            paymentDetail.setApprovalUrl(getString(buffer));
+            final var hasApprovalExpiresAt = buffer.get() == 1;
+            final var approvalExpiresAt = buffer.getLong();
+            paymentDetail.setApprovalExpiresAt(hasApprovalExpiresAt ? approvalExpiresAt : null);
+        }
+
+        return paymentDetail;
+    }
+
+    private static byte[] encodeOutboxEvent(final OutboxEvent outboxEvent) {
+        final var aggregateId = bytes(outboxEvent.getAggregateId());
+        final var eventType = bytes(outboxEvent.getEventType());
+        final var payload = bytes(outboxEvent.getPayload());
+
+        final var buffer = ByteBuffer.allocate(2 * Long.BYTES + sizeOf(aggregateId) + sizeOf(eventType) + sizeOf(payload));
+
+        buffer.putLong(outboxEvent.getId());
+        buffer.putLong(outboxEvent.getCreatedAt());
+        putBytes(buffer, aggregateId);
+        putBytes(buffer, eventType);
+        putBytes(buffer, payload);
+
+        return buffer.array();
+    }
+
+    private static OutboxEvent decodeOutboxEvent(final ByteBuffer buffer) {
+        final var id = buffer.getLong();
+        final var createdAt = buffer.getLong();
+        final var outboxEvent = new OutboxEvent(getString(buffer), getString(buffer), getString(buffer), createdAt);
+        outboxEvent.setId(id);
+        return outboxEvent;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int sizeOf(final byte[] value) {
+        return Integer.BYTES + (value != null ? value.length : 0);
+    }
+
+    private static void putBytes(final ByteBuffer buffer, final byte[] value) {
+        if (value == null) {
+            buffer.putInt(NULL_LENGTH);
+            return;
+        }
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final var length = buffer.getInt();
+
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+
+        final var value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+}
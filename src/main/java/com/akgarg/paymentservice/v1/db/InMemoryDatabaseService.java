@@ -1,77 +1,121 @@
 package com.akgarg.paymentservice.v1.db;
 
-import com.akgarg.paymentservice.exception.DatabaseException;
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
 import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
 import com.akgarg.paymentservice.payment.PaymentStatus;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static com.akgarg.paymentservice.v1.db.PaymentDetailStore.NO_OP;
 
 /**
  * @author Akhilesh Garg
  * @since 11/11/23
  */
 @Service
+@Qualifier(CachingDatabaseService.STORAGE_QUALIFIER)
 @Slf4j
-@Profile("dev")
+@Profile("dev & !embedded")
+@RequiredArgsConstructor
 public class InMemoryDatabaseService implements DatabaseService {
 
-    private final Map<String, PaymentDetail> paymentDetails = new HashMap<>();
+    private final Environment environment;
+
+    private final OutboxEventStore outboxEventStore = new OutboxEventStore();
+    private PaymentDetailStore paymentDetailStore;
+
+    @PostConstruct
+    public void init() {
+        final var maximumSize = environment.getProperty("payment.in-memory-db.maximum-size", Long.class, 0L);
+        paymentDetailStore = new PaymentDetailStore(maximumSize);
+        log.info("Initialized in-memory database with maximum size {}", maximumSize > 0 ? maximumSize : "unbounded");
+    }
 
     @Override
     public PaymentDetail savePaymentDetails(final PaymentDetail paymentDetail) {
         log.info("Saving payment details: {}", paymentDetail);
-
-        if (paymentDetails.containsKey(paymentDetail.getId())) {
-            throw new DatabaseException("Payment details already exists for id %s".formatted(paymentDetail.getId()));
-        }
-
-        paymentDetails.put(paymentDetail.getId(), paymentDetail);
-
+        paymentDetailStore.insert(paymentDetail, NO_OP);
         return paymentDetail;
     }
 
     @Override
     public PaymentDetail updatePaymentDetails(final PaymentDetail paymentDetail) {
         log.info("Updating payment details: {}", paymentDetail);
-
-        if (!paymentDetails.containsKey(paymentDetail.getId())) {
-            log.error("Payment detail with id {} not found", paymentDetail.getId());
-            throw new DatabaseException("Payment details not found for payment id " + paymentDetail.getId());
-        }
-
         paymentDetail.setUpdatedAt(System.currentTimeMillis());
-        paymentDetails.put(paymentDetail.getId(), paymentDetail);
+        paymentDetailStore.update(paymentDetail, NO_OP);
         return paymentDetail;
     }
 
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt) {
+        log.info("Transitioning payment {} from {} to {}", paymentId, expectedStatuses, newStatus);
+        return paymentDetailStore.transitionStatus(paymentId, expectedStatuses, newStatus, updatedAt, completedAt, NO_OP);
+    }
+
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt,
+                                    final OutboxEvent outboxEvent) {
+        log.info("Transitioning payment {} from {} to {} with outbox event {}", paymentId, expectedStatuses, newStatus, outboxEvent.getEventType());
+        final var storedOutboxEvent = outboxEventStore.withNextId(outboxEvent);
+        return paymentDetailStore.transitionStatus(paymentId, expectedStatuses, newStatus, updatedAt, completedAt,
+                paymentDetail -> outboxEventStore.add(storedOutboxEvent));
+    }
+
     @Override
     public Optional<PaymentDetail> getPaymentDetails(final String paymentId) {
         log.info("Getting payment details for id: {}", paymentId);
-        return Optional.ofNullable(paymentDetails.get(paymentId));
+        return paymentDetailStore.get(paymentId);
     }
 
     @Override
     public List<PaymentDetail> getPaymentDetailForUserByPaymentStatus(final String userId, final Collection<PaymentStatus> statuses) {
         log.info("Getting payment details for user id {} with payment status {}", userId, statuses);
-        return paymentDetails
-                .values()
-                .stream()
-                .filter(pd -> pd.getUserId().equals(userId))
-                .filter(pd -> statuses.contains(PaymentStatus.valueOf(pd.getPaymentStatus())))
-                .toList();
+        return paymentDetailStore.findByUserAndStatuses(userId, statuses);
     }
 
     @Override
     public List<PaymentDetail> getAllPaymentDetails(final String userId) {
         log.info("Getting payment details for userId {}", userId);
-        return paymentDetails
-                .values()
-                .stream()
-                .filter(pd -> pd.getUserId().equals(userId) && !pd.isDeleted())
-                .toList();
+        return paymentDetailStore.findByUser(userId);
+    }
+
+    @Override
+    public List<PaymentDetailSummary> getPaymentHistory(final String userId,
+                                                        final long afterCreatedAt,
+                                                        final String afterId,
+                                                        final int limit) {
+        log.info("Getting payment history for userId {} after {}", userId, afterCreatedAt);
+        return paymentDetailStore.findHistory(userId, afterCreatedAt, afterId, limit);
+    }
+
+    @Override
+    public int relayOutboxEvents(final int limit, final Function<List<OutboxEvent>, Collection<Long>> publisher) {
+        return outboxEventStore.relay(limit, publisher, ids -> {
+        });
+    }
+
+    @Override
+    public int purgeSentOutboxEvents(final long sentBefore, final int limit) {
+        return 0;
     }
 
 }
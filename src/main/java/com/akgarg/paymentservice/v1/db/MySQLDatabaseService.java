@@ -1,16 +1,25 @@
 package com.akgarg.paymentservice.v1.db;
 
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
 import com.akgarg.paymentservice.exception.DatabaseException;
 import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
 import com.akgarg.paymentservice.payment.PaymentStatus;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 import static com.akgarg.paymentservice.utils.PaymentServiceUtils.maskString;
 
@@ -19,12 +28,23 @@ import static com.akgarg.paymentservice.utils.PaymentServiceUtils.maskString;
  * @since 11/11/23
  */
 @Service
-@Profile("prod")
+@Qualifier(CachingDatabaseService.STORAGE_QUALIFIER)
+@Profile("prod & !embedded")
 @Slf4j
 @RequiredArgsConstructor
 public class MySQLDatabaseService implements DatabaseService {
 
     private final PaymentDetailRepository paymentDetailRepository;
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Environment environment;
+
+    private long claimTimeoutMillis;
+
+    @PostConstruct
+    public void init() {
+        claimTimeoutMillis = environment.getProperty("payment.outbox.relay.claim-timeout", Long.class, 60_000L);
+    }
 
     @Override
     public PaymentDetail savePaymentDetails(final PaymentDetail paymentDetail) throws DatabaseException {
@@ -49,6 +69,47 @@ public class MySQLDatabaseService implements DatabaseService {
         }
     }
 
+    @Override
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt) throws DatabaseException {
+        log.info("Transitioning payment {} from {} to {}", maskString(paymentId), expectedStatuses, newStatus);
+
+        try {
+            return paymentDetailRepository.updatePaymentStatus(
+                    paymentId,
+                    expectedStatuses,
+                    newStatus,
+                    updatedAt,
+                    completedAt
+            ) == 1;
+        } catch (Exception e) {
+            throw new DatabaseException("Failed to update payment status for payment id " + maskString(paymentId), e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public boolean transitionStatus(final String paymentId,
+                                    final Collection<PaymentStatus> expectedStatuses,
+                                    final PaymentStatus newStatus,
+                                    final long updatedAt,
+                                    final Long completedAt,
+                                    final OutboxEvent outboxEvent) throws DatabaseException {
+        if (!transitionStatus(paymentId, expectedStatuses, newStatus, updatedAt, completedAt)) {
+            return false;
+        }
+
+        try {
+            outboxEventRepository.save(outboxEvent);
+            return true;
+        } catch (Exception e) {
+            throw new DatabaseException("Failed to save outbox event for payment id " + maskString(paymentId), e);
+        }
+    }
+
     @Override
     public Optional<PaymentDetail> getPaymentDetails(final String paymentId) throws DatabaseException {
         log.info("Getting payment detail for payment id {}", maskString(paymentId));
@@ -75,9 +136,7 @@ public class MySQLDatabaseService implements DatabaseService {
         log.info("Getting payment detail for user id {} for payment status {}", userId, statuses);
 
         try {
-            return paymentDetailRepository.findAllByUserIdAndPaymentStatusIn(userId,
-                    statuses.stream().map(Enum::name).toList()
-            );
+            return paymentDetailRepository.findAllByUserIdAndPaymentStatusIn(userId, statuses);
         } catch (Exception e) {
             throw new DatabaseException("Failed to get payment detail for user id " + userId, e);
         }
@@ -94,4 +153,70 @@ public class MySQLDatabaseService implements DatabaseService {
         }
     }
 
+    @Override
+    public List<PaymentDetailSummary> getPaymentHistory(final String userId,
+                                                        final long afterCreatedAt,
+                                                        final String afterId,
+                                                        final int limit) throws DatabaseException {
+        log.info("Getting payment history for userId {} after {}", userId, afterCreatedAt);
+
+        try {
+            return paymentDetailRepository.findPaymentHistory(userId, afterCreatedAt, afterId, Limit.of(limit));
+        } catch (Exception e) {
+            throw new DatabaseException("Failed to get payment history for userId " + userId, e);
+        }
+    }
+
+    /**
+     * Claims the events in a short transaction of its own, so no row locks or connection are held while the publisher
+     * waits for the broker. A claim lasts {@code payment.outbox.relay.claim-timeout} milliseconds; other instances skip
+     * claimed events meanwhile, and events that weren't marked as sent are claimable again once it runs out.
+     */
+    @Override
+    public int relayOutboxEvents(final int limit, final Function<List<OutboxEvent>, Collection<Long>> publisher) throws DatabaseException {
+        final List<OutboxEvent> outboxEvents;
+
+        try {
+            outboxEvents = transactionTemplate.execute(status -> {
+                final var now = System.currentTimeMillis();
+                final var unsentEvents = outboxEventRepository.lockUnsentEvents(now, limit);
+
+                if (!unsentEvents.isEmpty()) {
+                    outboxEventRepository.claim(unsentEvents.stream().map(OutboxEvent::getId).toList(), now + claimTimeoutMillis);
+                }
+
+                return unsentEvents;
+            });
+        } catch (Exception e) {
+            throw new DatabaseException("Failed to claim unsent outbox events", e);
+        }
+
+        if (outboxEvents == null || outboxEvents.isEmpty()) {
+            return 0;
+        }
+
+        final var publishedIds = publisher.apply(outboxEvents);
+
+        if (!publishedIds.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        outboxEventRepository.markSent(publishedIds, System.currentTimeMillis()));
+            } catch (Exception e) {
+                throw new DatabaseException("Failed to mark outbox events as sent", e);
+            }
+        }
+
+        return publishedIds.size();
+    }
+
+    @Override
+    @Transactional
+    public int purgeSentOutboxEvents(final long sentBefore, final int limit) throws DatabaseException {
+        try {
+            return outboxEventRepository.deleteSentBefore(sentBefore, limit);
+        } catch (Exception e) {
+            throw new DatabaseException("Failed to purge sent outbox events", e);
+        }
+    }
+
 }
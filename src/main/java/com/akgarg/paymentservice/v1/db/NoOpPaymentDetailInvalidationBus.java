@@ -0,0 +1,25 @@
+package com.akgarg.paymentservice.v1.db;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * A single instance has no other caches to invalidate.
+ */
+@Component
+@Profile("dev")
+public class NoOpPaymentDetailInvalidationBus implements PaymentDetailInvalidationBus {
+
+    @Override
+    public void publish(final String paymentId) {
+        // nothing to tell
+    }
+
+    @Override
+    public void subscribe(final Consumer<String> listener) {
+        // nothing to hear
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    /**
+     * Locks the oldest unsent events that aren't claimed at {@code now}. Rows already locked by another instance's relay
+     * are skipped instead of waited for.
+     */
+    @Query(value = """
+            SELECT * FROM payment_outbox
+            WHERE sent_at IS NULL AND (claimed_until IS NULL OR claimed_until < :now)
+            ORDER BY id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<OutboxEvent> lockUnsentEvents(@Param("now") long now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent oe SET oe.claimedUntil = :claimedUntil WHERE oe.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids, @Param("claimedUntil") long claimedUntil);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent oe SET oe.sentAt = :sentAt WHERE oe.id IN :ids")
+    int markSent(@Param("ids") Collection<Long> ids, @Param("sentAt") long sentAt);
+
+    @Modifying
+    @Query(value = "DELETE FROM payment_outbox WHERE sent_at < :sentBefore LIMIT :limit", nativeQuery = true)
+    int deleteSentBefore(@Param("sentBefore") long sentBefore, @Param("limit") int limit);
+
+}
@@ -0,0 +1,90 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Unsent outbox events of the in-process databases, ordered by id. Sent events are removed right away, so there is
+ * nothing to purge.
+ */
+final class OutboxEventStore {
+
+    private final NavigableMap<Long, OutboxEvent> unsentEvents = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final ReentrantLock relayLock = new ReentrantLock();
+
+    /**
+     * Returns a copy of the event with the next id. The copy is not stored until passed to {@link #add(OutboxEvent)}.
+     */
+    OutboxEvent withNextId(final OutboxEvent outboxEvent) {
+        final var copy = copy(outboxEvent);
+        copy.setId(lastId.incrementAndGet());
+        return copy;
+    }
+
+    /**
+     * Stores an event that already has an id, also when restoring persisted events.
+     */
+    void add(final OutboxEvent outboxEvent) {
+        lastId.accumulateAndGet(outboxEvent.getId(), Math::max);
+        unsentEvents.put(outboxEvent.getId(), outboxEvent);
+    }
+
+    void remove(final Collection<Long> ids) {
+        ids.forEach(unsentEvents::remove);
+    }
+
+    /**
+     * Passes up to {@code limit} of the oldest unsent events to {@code publisher}. The ids it returns are handed to
+     * {@code beforeRemove} and then removed. Concurrent calls run one at a time so no event is handed out twice.
+     *
+     * @return number of events removed
+     */
+    int relay(final int limit,
+              final Function<List<OutboxEvent>, Collection<Long>> publisher,
+              final Consumer<Collection<Long>> beforeRemove) {
+        relayLock.lock();
+        try {
+            final var outboxEvents = unsentEvents.values().stream().limit(limit).map(OutboxEventStore::copy).toList();
+
+            if (outboxEvents.isEmpty()) {
+                return 0;
+            }
+
+            final var publishedIds = publisher.apply(outboxEvents);
+
+            if (!publishedIds.isEmpty()) {
+                beforeRemove.accept(publishedIds);
+                remove(publishedIds);
+            }
+
+            return publishedIds.size();
+        } finally {
+            relayLock.unlock();
+        }
+    }
+
+    /**
+     * Weakly consistent view of the unsent events. The returned instances must not be modified.
+     */
+    Collection<OutboxEvent> values() {
+        return Collections.unmodifiableCollection(unsentEvents.values());
+    }
+
+    private static OutboxEvent copy(final OutboxEvent source) {
+        final var outboxEvent = new OutboxEvent(source.getAggregateId(), source.getEventType(), source.getPayload(), source.getCreatedAt());
+        outboxEvent.setId(source.getId());
+        outboxEvent.setSentAt(source.getSentAt());
+        return outboxEvent;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.akgarg.paymentservice.v1.db;
+
+import java.util.function.Consumer;
+
+/**
+ * Tells the other instances that a payment has changed, so they drop their cached copy of it.
+ */
+public interface PaymentDetailInvalidationBus {
+
+    void publish(String paymentId);
+
+    /**
+     * Registers a listener for the ids published by other instances. It may also receive this instance's own ids.
+     */
+    void subscribe(Consumer<String> listener);
+
+}
@@ -1,9 +1,17 @@
 package com.akgarg.paymentservice.v1.db;
 
 import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -11,6 +19,35 @@ public interface PaymentDetailRepository extends JpaRepository<PaymentDetail, St
 
     List<PaymentDetail> findAllByUserIdAndDeleted(String userId, boolean deleted);
 
-    List<PaymentDetail> findAllByUserIdAndPaymentStatusIn(String userId, List<String> paymentStatuses);
+    List<PaymentDetail> findAllByUserIdAndPaymentStatusIn(String userId, Collection<PaymentStatus> paymentStatuses);
+
+    @Query("""
+            SELECT new com.akgarg.paymentservice.payment.PaymentDetailSummary(
+                pd.id, pd.packId, pd.amountMinor, pd.paymentStatus, pd.currency, pd.paymentMethod,
+                pd.createdAt, pd.updatedAt, pd.completedAt)
+            FROM PaymentDetail pd
+            WHERE pd.userId = :userId AND pd.deleted = false
+              AND (pd.createdAt > :afterCreatedAt OR (pd.createdAt = :afterCreatedAt AND pd.id > :afterId))
+            ORDER BY pd.createdAt, pd.id
+            """)
+    List<PaymentDetailSummary> findPaymentHistory(@Param("userId") String userId,
+                                                  @Param("afterCreatedAt") long afterCreatedAt,
+                                                  @Param("afterId") String afterId,
+                                                  Limit limit);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE PaymentDetail pd
+            SET pd.paymentStatus = :newStatus,
+                pd.updatedAt = :updatedAt,
+                pd.completedAt = COALESCE(:completedAt, pd.completedAt)
+            WHERE pd.id = :id AND pd.deleted = false AND pd.paymentStatus IN :expectedStatuses
+            """)
+    int updatePaymentStatus(@Param("id") String id,
+                            @Param("expectedStatuses") Collection<PaymentStatus> expectedStatuses,
+                            @Param("newStatus") PaymentStatus newStatus,
+                            @Param("updatedAt") long updatedAt,
+                            @Param("completedAt") Long completedAt);
 
 }
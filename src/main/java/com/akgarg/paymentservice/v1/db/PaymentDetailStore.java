@@ -0,0 +1,262 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.exception.DatabaseException;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailSummary;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe payment store with secondary indexes by user and by (user, status), so per-user queries only touch that
+ * user's payments. Writes to a payment are serialized per payment id, and callers always get copies, so a returned
+ * payment can't change the indexes behind the store's back.
+ * <p>
+ * Every write method takes a callback that receives the new state of the payment before it becomes visible, while
+ * the payment is still locked. It can be used to persist the change; if it throws, the write is not applied.
+ */
+final class PaymentDetailStore {
+
+    static final Consumer<PaymentDetail> NO_OP = paymentDetail -> {
+    };
+
+    private final Map<String, NavigableSet<PaymentKey>> paymentsByUser = new ConcurrentHashMap<>();
+    private final Map<UserStatusKey, Set<String>> paymentIdsByUserAndStatus = new ConcurrentHashMap<>();
+    private final Map<String, PaymentDetail> paymentDetails;
+
+    /**
+     * @param maximumSize maximum number of payments kept, least recently used ones are evicted first. {@code 0} means
+     *                    unbounded.
+     */
+    PaymentDetailStore(final long maximumSize) {
+        final var cacheBuilder = Caffeine.newBuilder()
+                .<String, PaymentDetail>evictionListener((paymentId, paymentDetail, cause) -> {
+                    if (paymentDetail != null) {
+                        removeFromIndexes(paymentDetail);
+                    }
+                });
+
+        if (maximumSize > 0) {
+            cacheBuilder.maximumSize(maximumSize);
+        }
+
+        paymentDetails = cacheBuilder.build().asMap();
+    }
+
+    void insert(final PaymentDetail paymentDetail, final Consumer<PaymentDetail> beforeWrite) {
+        paymentDetails.compute(paymentDetail.getId(), (paymentId, existing) -> {
+            if (existing != null) {
+                throw new DatabaseException("Payment details already exists for id %s".formatted(paymentId));
+            }
+
+            final var stored = copy(paymentDetail);
+            beforeWrite.accept(stored);
+            addToIndexes(stored);
+            return stored;
+        });
+    }
+
+    void update(final PaymentDetail paymentDetail, final Consumer<PaymentDetail> beforeWrite) {
+        paymentDetails.compute(paymentDetail.getId(), (paymentId, existing) -> {
+            if (existing == null) {
+                throw new DatabaseException("Payment details not found for payment id " + paymentId);
+            }
+
+            final var stored = copy(paymentDetail);
+            beforeWrite.accept(stored);
+            removeFromIndexes(existing);
+            addToIndexes(stored);
+            return stored;
+        });
+    }
+
+    boolean transitionStatus(final String paymentId,
+                             final Collection<PaymentStatus> expectedStatuses,
+                             final PaymentStatus newStatus,
+                             final long updatedAt,
+                             final Long completedAt,
+                             final Consumer<PaymentDetail> beforeWrite) {
+        final var transitioned = new boolean[1];
+
+        paymentDetails.computeIfPresent(paymentId, (id, existing) -> {
+            if (existing.isDeleted() || !expectedStatuses.contains(existing.getPaymentStatus())) {
+                return existing;
+            }
+
+            final var stored = copy(existing);
+            stored.setPaymentStatus(newStatus);
+            stored.setUpdatedAt(updatedAt);
+            if (completedAt != null) {
+                stored.setCompletedAt(completedAt);
+            }
+
+            beforeWrite.accept(stored);
+            removeFromStatusIndex(existing);
+            addToStatusIndex(stored);
+            transitioned[0] = true;
+            return stored;
+        });
+
+        return transitioned[0];
+    }
+
+    /**
+     * Puts a payment as-is, replacing any previous state. Used to rebuild the store from persisted data.
+     */
+    void restore(final PaymentDetail paymentDetail) {
+        paymentDetails.compute(paymentDetail.getId(), (paymentId, existing) -> {
+            if (existing != null) {
+                removeFromIndexes(existing);
+            }
+            addToIndexes(paymentDetail);
+            return paymentDetail;
+        });
+    }
+
+    Optional<PaymentDetail> get(final String paymentId) {
+        return Optional.ofNullable(paymentDetails.get(paymentId)).map(PaymentDetailStore::copy);
+    }
+
+    List<PaymentDetail> findByUserAndStatuses(final String userId, final Collection<PaymentStatus> statuses) {
+        return statuses.stream()
+                .distinct()
+                .flatMap(status -> paymentIdsByUserAndStatus.getOrDefault(new UserStatusKey(userId, status), Set.of()).stream())
+                .map(paymentDetails::get)
+                // an index entry can briefly disagree with the stored payment while it is being written
+                .filter(pd -> pd != null && pd.getUserId().equals(userId) && statuses.contains(pd.getPaymentStatus()))
+                .map(PaymentDetailStore::copy)
+                .toList();
+    }
+
+    List<PaymentDetail> findByUser(final String userId) {
+        return userPayments(userId, paymentsByUser.getOrDefault(userId, Collections.emptyNavigableSet()))
+                .map(PaymentDetailStore::copy)
+                .toList();
+    }
+
+    List<PaymentDetailSummary> findHistory(final String userId, final long afterCreatedAt, final String afterId, final int limit) {
+        final var userPaymentKeys = paymentsByUser.get(userId);
+
+        if (userPaymentKeys == null) {
+            return List.of();
+        }
+
+        return userPayments(userId, userPaymentKeys.tailSet(new PaymentKey(afterCreatedAt, afterId), false))
+                .limit(limit)
+                .map(pd -> new PaymentDetailSummary(
+                        pd.getId(),
+                        pd.getPackId(),
+                        pd.getAmountMinor(),
+                        pd.getPaymentStatus(),
+                        pd.getCurrency(),
+                        pd.getPaymentMethod(),
+                        pd.getCreatedAt(),
+                        pd.getUpdatedAt(),
+                        pd.getCompletedAt()
+                ))
+                .toList();
+    }
+
+    /**
+     * Weakly consistent view of all stored payments. The returned instances must not be modified.
+     */
+    Collection<PaymentDetail> values() {
+        return Collections.unmodifiableCollection(paymentDetails.values());
+    }
+
+    int size() {
+        return paymentDetails.size();
+    }
+
+    private Stream<PaymentDetail> userPayments(final String userId, final Collection<PaymentKey> paymentKeys) {
+        return paymentKeys.stream()
+                .map(paymentKey -> paymentDetails.get(paymentKey.id()))
+                .filter(pd -> pd != null && pd.getUserId().equals(userId) && !pd.isDeleted());
+    }
+
+    private void addToIndexes(final PaymentDetail paymentDetail) {
+        paymentsByUser.compute(paymentDetail.getUserId(), (userId, paymentKeys) -> {
+            final var keys = paymentKeys != null ? paymentKeys : new ConcurrentSkipListSet<PaymentKey>();
+            keys.add(PaymentKey.of(paymentDetail));
+            return keys;
+        });
+        addToStatusIndex(paymentDetail);
+    }
+
+    private void removeFromIndexes(final PaymentDetail paymentDetail) {
+        paymentsByUser.computeIfPresent(paymentDetail.getUserId(), (userId, paymentKeys) -> {
+            paymentKeys.remove(PaymentKey.of(paymentDetail));
+            return paymentKeys.isEmpty() ? null : paymentKeys;
+        });
+        removeFromStatusIndex(paymentDetail);
+    }
+
+    private void addToStatusIndex(final PaymentDetail paymentDetail) {
+        paymentIdsByUserAndStatus.compute(UserStatusKey.of(paymentDetail), (key, paymentIds) -> {
+            final var ids = paymentIds != null ? paymentIds : ConcurrentHashMap.<String>newKeySet();
+            ids.add(paymentDetail.getId());
+            return ids;
+        });
+    }
+
+    private void removeFromStatusIndex(final PaymentDetail paymentDetail) {
+        paymentIdsByUserAndStatus.computeIfPresent(UserStatusKey.of(paymentDetail), (key, paymentIds) -> {
+            paymentIds.remove(paymentDetail.getId());
+            return paymentIds.isEmpty() ? null : paymentIds;
+        });
+    }
+
+    static PaymentDetail copy(final PaymentDetail source) {
+        final var paymentDetail = new PaymentDetail();
+        paymentDetail.setId(source.getId());
+        paymentDetail.setUserId(source.getUserId());
+        paymentDetail.setEmail(source.getEmail());
+        paymentDetail.setName(source.getName());
+        paymentDetail.setPackId(source.getPackId());
+        paymentDetail.setAmountMinor(source.getAmountMinor());
+        paymentDetail.setPaymentStatus(source.getPaymentStatus());
+        paymentDetail.setPaymentGateway(source.getPaymentGateway());
+        paymentDetail.setCurrency(source.getCurrency());
+        paymentDetail.setPaymentMethod(source.getPaymentMethod());
+        paymentDetail.setCreatedAt(source.getCreatedAt());
+        paymentDetail.setUpdatedAt(source.getUpdatedAt());
+        paymentDetail.setCompletedAt(source.getCompletedAt());
+        paymentDetail.setDeleted(source.isDeleted());
+        paymentDetail.setApprovalUrl(source.getApprovalUrl());
+        paymentDetail.setApprovalExpiresAt(source.getApprovalExpiresAt());
+        return paymentDetail;
+    }
+
+    private record UserStatusKey(String userId, PaymentStatus status) {
+
+        static UserStatusKey of(final PaymentDetail paymentDetail) {
+            return new UserStatusKey(paymentDetail.getUserId(), paymentDetail.getPaymentStatus());
+        }
+
+    }
+
+    /**
+     * Orders a user's payments the same way as the history query, by {@code (createdAt, id)}.
+     */
+    private record PaymentKey(long createdAt, String id) implements Comparable<PaymentKey> {
+
+        private static final Comparator<PaymentKey> ORDER = Comparator.comparingLong(PaymentKey::createdAt)
+                .thenComparing(PaymentKey::id);
+
+        static PaymentKey of(final PaymentDetail paymentDetail) {
+            return new PaymentKey(paymentDetail.getCreatedAt(), paymentDetail.getId());
+        }
+
+        @Override
+        public int compareTo(final PaymentKey other) {
+            return ORDER.compare(this, other);
+        }
+
+    }
+
+}
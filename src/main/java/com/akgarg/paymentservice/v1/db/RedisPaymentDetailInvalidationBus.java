@@ -0,0 +1,49 @@
+package com.akgarg.paymentservice.v1.db;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Publishes changed payment ids on a Redis pub/sub channel. Pub/sub doesn't buffer, so an instance disconnected from
+ * Redis misses invalidations; the expiry of its cache entries bounds how long it serves stale payments.
+ */
+@Slf4j
+@Component
+@Profile("prod")
+@RequiredArgsConstructor
+public class RedisPaymentDetailInvalidationBus implements PaymentDetailInvalidationBus {
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+    private final Environment environment;
+
+    @Override
+    public void publish(final String paymentId) {
+        try {
+            redisTemplate.convertAndSend(channel(), paymentId);
+        } catch (Exception e) {
+            log.error("Failed to publish invalidation of payment {}", paymentId, e);
+        }
+    }
+
+    @Override
+    public void subscribe(final Consumer<String> listener) {
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> listener.accept(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(channel()));
+    }
+
+    private String channel() {
+        return environment.getProperty("payment.detail-cache.redis-channel", "payment_detail_invalidations");
+    }
+
+}
@@ -0,0 +1,418 @@
+package com.akgarg.paymentservice.v1.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log split into memory-mapped segment files named by an increasing sequence number. Each record is
+ * {@code [payload length][CRC32C of payload][payload]}; a zero length marks the end of the written part of a segment.
+ * <p>
+ * Appends only copy into the mapped segment. A single flusher thread forces everything appended so far to disk and
+ * wakes up all writers waiting for it, so concurrent writers share one flush (group commit).
+ * <p>
+ * A failed flush leaves it unknown what reached the disk, so the log stops accepting appends from then on and
+ * {@link #flushFailure()} reports the cause until the process is restarted.
+ */
+@Slf4j
+final class WriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_FILE_PREFIX = "wal-";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final SegmentForcer DEFAULT_FORCER = MappedByteBuffer::force;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final SegmentForcer segmentForcer;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock durabilityLock = new ReentrantLock();
+    private final Condition appended = durabilityLock.newCondition();
+    private final Condition flushed = durabilityLock.newCondition();
+    private final Thread flusher;
+
+    // guarded by appendLock
+    private long segmentSequence;
+    private MappedByteBuffer segment;
+    private int segmentPosition;
+    private long segmentStartOffset;
+
+    // offsets count bytes appended since the log was opened
+    private volatile long appendedOffset;
+    private volatile long durableOffset;
+    private volatile IOException flushFailure;
+    private volatile boolean closed;
+
+    private WriteAheadLog(final Path directory, final int segmentSize, final SegmentForcer segmentForcer) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentForcer = segmentForcer;
+        this.flusher = Thread.ofPlatform().name("embedded-db-wal-flusher").daemon().unstarted(this::flushLoop);
+    }
+
+    /**
+     * Replays the records of all segments starting with {@code firstSegmentSequence} in order, deletes older segments,
+     * and opens the log for appending after the last valid record.
+     */
+    static WriteAheadLog open(final Path directory,
+                              final int segmentSize,
+                              final long firstSegmentSequence,
+                              final Consumer<ByteBuffer> replay) throws IOException {
+        return open(directory, segmentSize, firstSegmentSequence, replay, DEFAULT_FORCER);
+    }
+
+    static WriteAheadLog open(final Path directory,
+                              final int segmentSize,
+                              final long firstSegmentSequence,
+                              final Consumer<ByteBuffer> replay,
+                              final SegmentForcer segmentForcer) throws IOException {
+        Files.createDirectories(directory);
+
+        final var writeAheadLog = new WriteAheadLog(directory, segmentSize, segmentForcer);
+        final var segmentSequences = writeAheadLog.listSegmentSequences();
+        final var replayedSegments = new ArrayList<Long>();
+
+        for (final var sequence : segmentSequences) {
+            if (sequence < firstSegmentSequence) {
+                Files.deleteIfExists(writeAheadLog.segmentPath(sequence));
+            } else {
+                replayedSegments.add(sequence);
+            }
+        }
+
+        for (int i = 0; i < replayedSegments.size(); i++) {
+            final var sequence = replayedSegments.get(i);
+            final var lastSegment = i == replayedSegments.size() - 1;
+
+            try (final var channel = FileChannel.open(writeAheadLog.segmentPath(sequence), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                final var endPosition = replaySegment(buffer, replay);
+
+                if (endPosition < 0) {
+                    final var position = (int) (-endPosition - 1);
+                    if (!lastSegment) {
+                        throw new IOException("Write-ahead log segment %d is corrupted at position %d".formatted(sequence, position));
+                    }
+                    // a crash interrupted the last append; it was never acknowledged, so it is dropped
+                    log.warn("Discarding incomplete write-ahead log record in segment {} at position {}", sequence, position);
+                    buffer.put(position, new byte[buffer.capacity() - position]);
+                    buffer.force();
+                }
+
+                if (lastSegment) {
+                    writeAheadLog.segmentSequence = sequence;
+                    writeAheadLog.segment = buffer;
+                    writeAheadLog.segmentPosition = endPosition < 0 ? (int) (-endPosition - 1) : (int) endPosition;
+                }
+            }
+        }
+
+        if (writeAheadLog.segment == null) {
+            writeAheadLog.openSegment(Math.max(firstSegmentSequence, 0));
+        }
+
+        writeAheadLog.flusher.start();
+        return writeAheadLog;
+    }
+
+    /**
+     * Appends a record and returns the offset to pass to {@link #awaitDurable(long)}. The record is not durable yet.
+     */
+    long append(final byte[] payload) throws IOException {
+        final var recordSize = RECORD_HEADER_SIZE + payload.length;
+        final long recordEndOffset;
+
+        appendLock.lock();
+        try {
+            ensureWritable();
+
+            if (recordSize > segmentSize) {
+                throw new IOException("Record of %d bytes exceeds the segment size".formatted(recordSize));
+            }
+
+            if (segmentPosition + recordSize > segment.capacity()) {
+                rollSegment();
+            }
+
+            final var crc = new CRC32C();
+            crc.update(payload);
+
+            segment.putInt(segmentPosition + Integer.BYTES, (int) crc.getValue());
+            segment.put(segmentPosition + RECORD_HEADER_SIZE, payload);
+            segment.putInt(segmentPosition, payload.length);
+            segmentPosition += recordSize;
+
+            recordEndOffset = appendedOffset + recordSize;
+            appendedOffset = recordEndOffset;
+        } finally {
+            appendLock.unlock();
+        }
+
+        durabilityLock.lock();
+        try {
+            appended.signal();
+        } finally {
+            durabilityLock.unlock();
+        }
+
+        return recordEndOffset;
+    }
+
+    /**
+     * Blocks until everything up to {@code offset} has been forced to disk.
+     */
+    void awaitDurable(final long offset) throws IOException {
+        if (durableOffset >= offset) {
+            return;
+        }
+
+        durabilityLock.lock();
+        try {
+            while (durableOffset < offset) {
+                if (flushFailure != null) {
+                    throw new IOException("Write-ahead log flush failed", flushFailure);
+                }
+                ensureOpen();
+                flushed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for write-ahead log flush");
+        } finally {
+            durabilityLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment and returns its sequence number. Records appended before this call are all in older
+     * segments, which can be deleted once a snapshot covering them is written.
+     */
+    long roll() throws IOException {
+        appendLock.lock();
+        try {
+            ensureWritable();
+            rollSegment();
+            return segmentSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    void deleteSegmentsBefore(final long sequence) throws IOException {
+        for (final var segmentSequence : listSegmentSequences()) {
+            if (segmentSequence < sequence) {
+                Files.deleteIfExists(segmentPath(segmentSequence));
+            }
+        }
+    }
+
+    long appendedBytes() {
+        return appendedOffset;
+    }
+
+    /**
+     * Returns the failure that stopped the flusher, or null while the log is writable.
+     */
+    IOException flushFailure() {
+        return flushFailure;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        durabilityLock.lock();
+        try {
+            appended.signalAll();
+            flushed.signalAll();
+        } finally {
+            durabilityLock.unlock();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        appendLock.lock();
+        try {
+            segment.force();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            durabilityLock.lock();
+            try {
+                while (!closed && appendedOffset <= durableOffset) {
+                    appended.awaitUninterruptibly();
+                }
+            } finally {
+                durabilityLock.unlock();
+            }
+
+            if (closed) {
+                return;
+            }
+
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("Failed to flush write-ahead log", e);
+                flushFailure = e instanceof IOException ioException ? ioException : new IOException(e);
+                markDurable(durableOffset);
+                return;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        final MappedByteBuffer buffer;
+        final int from;
+        final int to;
+        final long targetOffset;
+
+        appendLock.lock();
+        try {
+            buffer = segment;
+            targetOffset = appendedOffset;
+            // earlier segments were forced when they were rolled
+            from = (int) Math.max(durableOffset - segmentStartOffset, 0);
+            to = segmentPosition;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (to > from) {
+            segmentForcer.force(buffer, from, to - from);
+        }
+
+        markDurable(targetOffset);
+    }
+
+    private void markDurable(final long offset) {
+        durabilityLock.lock();
+        try {
+            if (offset > durableOffset) {
+                durableOffset = offset;
+            }
+            flushed.signalAll();
+        } finally {
+            durabilityLock.unlock();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        segment.force();
+        markDurable(appendedOffset);
+        openSegment(segmentSequence + 1);
+    }
+
+    private void openSegment(final long sequence) throws IOException {
+        try (final var channel = FileChannel.open(segmentPath(sequence),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        syncDirectory(directory);
+
+        segmentSequence = sequence;
+        segmentPosition = 0;
+        segmentStartOffset = appendedOffset;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        ensureOpen();
+
+        if (flushFailure != null) {
+            throw new IOException("Write-ahead log is read-only after a failed flush", flushFailure);
+        }
+    }
+
+    private List<Long> listSegmentSequences() throws IOException {
+        try (final var files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(final long sequence) {
+        return directory.resolve("%s%020d%s".formatted(SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_SUFFIX));
+    }
+
+    /**
+     * Replays all valid records of a segment. Returns the position after the last record, or {@code -(position + 1)}
+     * if an incomplete or corrupted record was found at that position.
+     */
+    private static long replaySegment(final ByteBuffer buffer, final Consumer<ByteBuffer> replay) {
+        int position = 0;
+
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            final var length = buffer.getInt(position);
+
+            if (length == 0) {
+                return position;
+            }
+
+            if (length < 0 || length > buffer.capacity() - position - RECORD_HEADER_SIZE) {
+                return -(position + 1L);
+            }
+
+            final var payload = buffer.slice(position + RECORD_HEADER_SIZE, length);
+            final var crc = new CRC32C();
+            crc.update(payload.duplicate());
+
+            if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                return -(position + 1L);
+            }
+
+            replay.accept(payload);
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        return position;
+    }
+
+    /**
+     * Forces a range of a mapped segment to disk. Tests pass one that fails.
+     */
+    @FunctionalInterface
+    interface SegmentForcer {
+        void force(MappedByteBuffer segment, int index, int length) throws IOException;
+    }
+
+    static void syncDirectory(final Path directory) {
+        try (final var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on every platform; the file contents themselves are forced separately
+            log.debug("Failed to sync directory {}", directory, e);
+        }
+    }
+
+}
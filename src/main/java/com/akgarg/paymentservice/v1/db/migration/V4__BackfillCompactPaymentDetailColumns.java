@@ -0,0 +1,98 @@
+package com.akgarg.paymentservice.v1.db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Fills the compact columns added by V3 from the legacy string and floating point columns, in batches so large tables
+ * are not read in one go. Rows that can't be converted fail the migration instead of being guessed.
+ * <p>
+ * The status and gateway codes are copied here rather than taken from {@code PaymentStatus} and {@code PaymentGateway},
+ * so renaming or extending those enums later can't change what this migration did.
+ */
+@SuppressWarnings("unused")
+public class V4__BackfillCompactPaymentDetailColumns extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 1_000;
+
+    private static final Map<String, Integer> STATUS_CODES = Map.of(
+            "CREATED", 1,
+            "PROCESSING", 2,
+            "COMPLETED", 3,
+            "CANCELLED", 4,
+            "FAILED", 5
+    );
+
+    private static final Map<String, Integer> GATEWAY_CODES = Map.of(
+            "PAYPAL", 1
+    );
+
+    @Override
+    public void migrate(final Context context) throws Exception {
+        final var connection = context.getConnection();
+
+        try (final var select = connection.prepareStatement(
+                "SELECT id, status, gateway, currency, amount FROM payment_detail WHERE status_code IS NULL LIMIT " + BATCH_SIZE);
+             final var update = connection.prepareStatement(
+                     "UPDATE payment_detail SET status_code = ?, gateway_code = ?, currency_code = ?, amount_minor = ? WHERE id = ?")) {
+            int updatedRows;
+
+            do {
+                updatedRows = 0;
+
+                try (final var resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        final var id = resultSet.getString("id");
+                        final var currency = toCurrency(id, resultSet.getString("currency"));
+
+                        update.setInt(1, toCode(id, "status", resultSet.getString("status"), STATUS_CODES));
+                        update.setInt(2, toCode(id, "gateway", resultSet.getString("gateway"), GATEWAY_CODES));
+                        update.setInt(3, currency.getNumericCode());
+                        update.setLong(4, toMinorUnits(resultSet.getDouble("amount"), currency));
+                        update.setString(5, id);
+                        update.addBatch();
+                        updatedRows++;
+                    }
+                }
+
+                if (updatedRows > 0) {
+                    update.executeBatch();
+                }
+            } while (updatedRows == BATCH_SIZE);
+        }
+    }
+
+    private static int toCode(final String id, final String column, final String value, final Map<String, Integer> codes) {
+        final var code = value == null ? null : codes.get(value.trim().toUpperCase(Locale.ROOT));
+
+        if (code == null) {
+            throw new IllegalStateException("Payment %s has unknown %s '%s', expected one of %s"
+                    .formatted(id, column, value, codes.keySet()));
+        }
+
+        return code;
+    }
+
+    private static Currency toCurrency(final String id, final String currency) {
+        try {
+            return Currency.getInstance(currency.trim().toUpperCase(Locale.ROOT));
+        } catch (NullPointerException | IllegalArgumentException e) {
+            throw new IllegalStateException("Payment %s has unknown currency '%s'".formatted(id, currency), e);
+        }
+    }
+
+    private static long toMinorUnits(final double amount, final Currency currency) {
+        final var fractionDigits = Math.max(currency.getDefaultFractionDigits(), 0);
+        return BigDecimal.valueOf(amount)
+                .setScale(fractionDigits, RoundingMode.HALF_UP)
+                .movePointRight(fractionDigits)
+                .longValueExact();
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size Bloom filter of strings, safe for concurrent use. Sized for {@code expectedInsertions} entries at the given
+ * false positive probability; past that the false positive rate grows.
+ */
+final class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    BloomFilter(final long expectedInsertions, final double falsePositiveProbability) {
+        final var optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        final var words = (int) Math.max((optimalBits + Long.SIZE - 1) / Long.SIZE, 1);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * Long.SIZE;
+        this.hashCount = (int) Math.max(Math.round((double) bitCount / Math.max(expectedInsertions, 1) * Math.log(2)), 1);
+    }
+
+    void put(final String value) {
+        final var hash = hash(value);
+
+        for (int i = 0; i < hashCount; i++) {
+            final var index = bitIndex(hash, i);
+            final var mask = 1L << index;
+            bits.getAndAccumulate((int) (index >>> 6), mask, (word, bit) -> word | bit);
+        }
+    }
+
+    boolean mightContain(final String value) {
+        final var hash = hash(value);
+
+        for (int i = 0; i < hashCount; i++) {
+            final var index = bitIndex(hash, i);
+            if ((bits.get((int) (index >>> 6)) & 1L << index) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Double hashing: the i-th index is derived from the two halves of one 64 bit hash.
+     */
+    private long bitIndex(final long hash, final int i) {
+        final var combined = (int) hash + i * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters, finished with the MurmurHash3 mixer so that both halves are well spread.
+     */
+    private static long hash(final String value) {
+        var hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
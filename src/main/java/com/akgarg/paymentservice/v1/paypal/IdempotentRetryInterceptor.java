@@ -0,0 +1,71 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+
+/**
+ * Retries PayPal calls that are safe to repeat (GET, HEAD, PUT, DELETE) up to {@code maxAttempts} calls in total.
+ * Order creation and capture are POST requests and are never retried here, so a timed out capture can't charge the
+ * customer twice.
+ */
+@Slf4j
+final class IdempotentRetryInterceptor implements Interceptor {
+
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "PUT", "DELETE");
+
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    IdempotentRetryInterceptor(final int maxAttempts, final long backoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final var request = chain.request();
+
+        if (maxAttempts <= 1 || !IDEMPOTENT_METHODS.contains(request.method())) {
+            return chain.proceed(request);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final var response = chain.proceed(request);
+
+                if (attempt >= maxAttempts || !isRetryable(response.code())) {
+                    return response;
+                }
+
+                log.warn("PayPal {} {} returned {}, retrying", request.method(), request.url().encodedPath(), response.code());
+                response.close();
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || chain.call().isCanceled()) {
+                    throw e;
+                }
+                log.warn("PayPal {} {} failed: {}, retrying", request.method(), request.url().encodedPath(), e.getMessage());
+            }
+
+            sleep(backoffMillis << (attempt - 1));
+        }
+    }
+
+    private static boolean isRetryable(final int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    private static void sleep(final long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry PayPal request");
+        }
+    }
+
+}
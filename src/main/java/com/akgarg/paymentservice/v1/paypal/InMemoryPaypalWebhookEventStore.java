@@ -0,0 +1,40 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+@Component
+@Profile("dev")
+@RequiredArgsConstructor
+public class InMemoryPaypalWebhookEventStore implements PaypalWebhookEventStore {
+
+    private final Environment environment;
+
+    private Cache<String, Boolean> processedEventIds;
+
+    @PostConstruct
+    public void init() {
+        processedEventIds = Caffeine.newBuilder()
+                .maximumSize(environment.getProperty("paypal.webhook.dedup.in-memory.maximum-size", Long.class, 100_000L))
+                .expireAfterWrite(environment.getProperty("paypal.webhook.dedup.ttl", Long.class, 259_200_000L), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public boolean isProcessed(final String eventId) {
+        return processedEventIds.getIfPresent(eventId) != null;
+    }
+
+    @Override
+    public void markProcessed(final String eventId) {
+        processedEventIds.put(eventId, Boolean.TRUE);
+    }
+
+}
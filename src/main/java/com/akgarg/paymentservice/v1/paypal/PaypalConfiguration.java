@@ -2,19 +2,24 @@ package com.akgarg.paymentservice.v1.paypal;
 
 import com.paypal.sdk.PaypalServerSdkClient;
 import com.paypal.sdk.authentication.ClientCredentialsAuthModel;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class PaypalConfiguration {
 
     @Bean
     @Profile("prod")
-    public PaypalServerSdkClient paypalDevHttpEnvironmentClient(final Environment environment) {
+    public PaypalServerSdkClient paypalDevHttpEnvironmentClient(final Environment environment,
+                                                                final PaypalOAuthTokenManager paypalOAuthTokenManager) {
         final var paypalEnvironment = com.paypal.sdk.Environment.fromString(
                 Objects.requireNonNull(environment.getProperty("paypal.environment"), "Environment property 'paypal.environment' is required")
         );
@@ -22,10 +27,16 @@ public class PaypalConfiguration {
         final var clientCredentialsAuthModel = new ClientCredentialsAuthModel.Builder(
                 Objects.requireNonNull(environment.getProperty("paypal.oauth.client-id"), "Environment property 'paypal.oauth.client-id' is required"),
                 Objects.requireNonNull(environment.getProperty("paypal.oauth.client-secret"), "Environment property 'paypal.oauth.client-secret' is required")
-        ).build();
+        )
+                .oAuthTokenProvider(paypalOAuthTokenManager)
+                .oAuthClockSkew(environment.getProperty("paypal.oauth.clock-skew", Long.class, 60L))
+                .build();
+
+        // the SDK's own client settings force a single value for every timeout, so a pre-configured client is passed as-is
+        final var okHttpClient = paypalOkHttpClient(environment);
 
         return new PaypalServerSdkClient.Builder()
-                .httpClientConfig(configBuilder -> configBuilder.timeout(0))
+                .httpClientConfig(configBuilder -> configBuilder.httpClientInstance(okHttpClient, false))
                 .clientCredentialsAuth(clientCredentialsAuthModel)
                 .environment(paypalEnvironment)
                 .build();
@@ -38,4 +49,30 @@ public class PaypalConfiguration {
                 .build();
     }
 
+    private OkHttpClient paypalOkHttpClient(final Environment environment) {
+        final var connectionPool = new ConnectionPool(
+                environment.getProperty("paypal.http.pool.max-idle-connections", Integer.class, 20),
+                environment.getProperty("paypal.http.pool.keep-alive", Long.class, 300_000L),
+                TimeUnit.MILLISECONDS
+        );
+
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectTimeout(getDuration(environment, "paypal.http.connect-timeout", 2_000L))
+                .readTimeout(getDuration(environment, "paypal.http.read-timeout", 15_000L))
+                .writeTimeout(getDuration(environment, "paypal.http.write-timeout", 5_000L))
+                .callTimeout(getDuration(environment, "paypal.http.call-timeout", 30_000L))
+                // OkHttp would silently resend POSTs on a stale pooled connection, retries are left to the interceptor
+                .retryOnConnectionFailure(false)
+                .addInterceptor(new IdempotentRetryInterceptor(
+                        environment.getProperty("paypal.http.retry.max-attempts", Integer.class, 3),
+                        environment.getProperty("paypal.http.retry.backoff", Long.class, 200L)
+                ))
+                .build();
+    }
+
+    private static Duration getDuration(final Environment environment, final String key, final long defaultMillis) {
+        return Duration.ofMillis(environment.getProperty(key, Long.class, defaultMillis));
+    }
+
 }
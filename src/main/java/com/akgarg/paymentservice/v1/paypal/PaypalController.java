@@ -1,6 +1,8 @@
 package com.akgarg.paymentservice.v1.paypal;
 
 import com.akgarg.paymentservice.exception.PaymentException;
+import com.akgarg.paymentservice.payment.PaymentDetailDto;
+import com.akgarg.paymentservice.payment.PaymentStatus;
 import com.akgarg.paymentservice.utils.PaymentServiceUtils;
 import com.akgarg.paymentservice.v1.paypal.request.CancelPaymentRequest;
 import com.akgarg.paymentservice.v1.paypal.request.CaptureOrderRequest;
@@ -9,6 +11,7 @@ import com.akgarg.paymentservice.v1.paypal.response.CancelPaymentResponse;
 import com.akgarg.paymentservice.v1.paypal.response.CaptureOrderResponse;
 import com.akgarg.paymentservice.v1.paypal.response.CreateOrderResponse;
 import com.akgarg.paymentservice.v1.paypal.response.GetOrderResponse;
+import com.akgarg.paymentservice.v1.status.PaymentStatusPushService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -17,9 +20,10 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
-import java.util.Map;
 
 import static com.akgarg.paymentservice.utils.PaymentServiceUtils.REQUEST_ID_HEADER;
 import static com.akgarg.paymentservice.utils.PaymentServiceUtils.USER_ID_HEADER;
@@ -33,6 +37,8 @@ public class PaypalController {
     private static final String REQUEST_VALIDATION_FAILED_MSG = "Request validation failed";
 
     private final PaypalService paypalService;
+    private final PaypalWebhookProcessor paypalWebhookProcessor;
+    private final PaymentStatusPushService paymentStatusPushService;
 
     @PostMapping("/order")
     public ResponseEntity<CreateOrderResponse> createOrder(
@@ -61,6 +67,24 @@ public class PaypalController {
         return ResponseEntity.status(order.getStatusCode()).body(order);
     }
 
+    /**
+     * Server-sent events with the order's current state, then each status change until a final status.
+     */
+    @GetMapping("/order/status/stream")
+    public SseEmitter streamOrderStatus(@RequestParam(value = "id") final String orderId) {
+        return paymentStatusPushService.stream(orderId);
+    }
+
+    /**
+     * Long-poll fallback for clients without server-sent events: answers once the order's status differs from
+     * {@code status}, or with the unchanged order when the poll times out.
+     */
+    @GetMapping("/order/status")
+    public DeferredResult<PaymentDetailDto> pollOrderStatus(@RequestParam(value = "id") final String orderId,
+                                                            @RequestParam(value = "status", required = false) final PaymentStatus status) {
+        return paymentStatusPushService.poll(orderId, status);
+    }
+
     @PostMapping(value = "/cancel", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<CancelPaymentResponse> deletePayment(
             @RequestHeader(USER_ID_HEADER) final String userId,
@@ -73,8 +97,9 @@ public class PaypalController {
     }
 
     @PostMapping("/webhook")
-    public ResponseEntity<Void> paypalWebhook(@RequestBody final Map<String, Object> body) throws Exception {
-        paypalService.processWebhook(body);
+    public ResponseEntity<Void> paypalWebhook(@RequestBody final String body) {
+        // acknowledged once stored, so PayPal doesn't retry while the webhook waits for processing
+        paypalWebhookProcessor.enqueue(body);
         return ResponseEntity.ok().build();
     }
 
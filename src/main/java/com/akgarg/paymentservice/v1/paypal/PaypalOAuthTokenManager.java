@@ -0,0 +1,160 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.paypal.sdk.ClientCredentialsAuth;
+import com.paypal.sdk.PaypalServerSdkClient;
+import com.paypal.sdk.models.OAuthToken;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Keeps a PayPal OAuth token ready for the SDK. The token is refreshed in the background ahead of its expiry, so
+ * request threads only read the current token and never wait for a fetch unless background refreshes keep failing.
+ */
+@Slf4j
+@Component
+@Profile("prod")
+@RequiredArgsConstructor
+public class PaypalOAuthTokenManager implements BiFunction<OAuthToken, ClientCredentialsAuth, OAuthToken> {
+
+    private static final String REFRESH_TIMER_NAME = "paypal.oauth.token.refresh";
+
+    private final ObjectProvider<PaypalServerSdkClient> paypalClientProvider;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final AtomicReference<OAuthToken> token = new AtomicReference<>();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "paypal-token-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ScheduledFuture<?> scheduledRefresh;
+    private long refreshAheadSeconds;
+    private long retryIntervalMillis;
+
+    @PostConstruct
+    public void init() {
+        refreshAheadSeconds = environment.getProperty("paypal.oauth.refresh-ahead", Long.class, 300L);
+        retryIntervalMillis = environment.getProperty("paypal.oauth.refresh-retry-interval", Long.class, 5_000L);
+
+        Gauge.builder("paypal.oauth.token.remaining", token, ref -> secondsUntilExpiry(ref.get()))
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshScheduler.shutdownNow();
+    }
+
+    /**
+     * Fetches the first token once the application is ready. This also opens a pooled TLS connection to the PayPal API
+     * host, so the first checkout after a deploy doesn't pay for either.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (environment.getProperty("paypal.http.warm-up.enabled", Boolean.class, true)) {
+            refresh(paypalClientProvider.getObject().getClientCredentialsAuth(), "warm-up");
+        }
+    }
+
+    @Override
+    public OAuthToken apply(final OAuthToken currentToken, final ClientCredentialsAuth auth) {
+        final var cachedToken = token.get();
+
+        if (isUsable(cachedToken, auth)) {
+            return cachedToken;
+        }
+
+        refreshLock.lock();
+        try {
+            // another request may have fetched the token while this one waited for the lock
+            final var latestToken = token.get();
+            if (isUsable(latestToken, auth)) {
+                return latestToken;
+            }
+
+            final var fetchedToken = refresh(auth, "inline");
+            return fetchedToken != null ? fetchedToken : currentToken;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private OAuthToken refresh(final ClientCredentialsAuth auth, final String trigger) {
+        refreshLock.lock();
+        try {
+            final var startTime = System.nanoTime();
+
+            try {
+                final var fetchedToken = auth.fetchToken();
+                refreshTimer(trigger, "success").record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                token.set(fetchedToken);
+
+                final var refreshDelay = Math.max(secondsUntilExpiry(fetchedToken) - refreshAheadSeconds, 0) * 1_000;
+                scheduleRefresh(Math.max(refreshDelay, retryIntervalMillis));
+                log.info("Fetched PayPal OAuth token ({}), next refresh in {} ms", trigger, refreshDelay);
+                return fetchedToken;
+            } catch (Exception e) {
+                refreshTimer(trigger, "failure").record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                log.error("Failed to fetch PayPal OAuth token ({}), retrying in {} ms", trigger, retryIntervalMillis, e);
+                scheduleRefresh(retryIntervalMillis);
+                return null;
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void scheduleRefresh(final long delayMillis) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+
+        scheduledRefresh = refreshScheduler.schedule(
+                () -> refresh(paypalClientProvider.getObject().getClientCredentialsAuth(), "background"),
+                delayMillis,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    private Timer refreshTimer(final String trigger, final String result) {
+        return Timer.builder(REFRESH_TIMER_NAME)
+                .tag("trigger", trigger)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static boolean isUsable(final OAuthToken oAuthToken, final ClientCredentialsAuth auth) {
+        return oAuthToken != null && !auth.isTokenExpired(oAuthToken);
+    }
+
+    private static long secondsUntilExpiry(final OAuthToken oAuthToken) {
+        if (oAuthToken == null || oAuthToken.getExpiry() == null) {
+            return 0;
+        }
+        return Math.max(oAuthToken.getExpiry() - System.currentTimeMillis() / 1_000, 0);
+    }
+
+}
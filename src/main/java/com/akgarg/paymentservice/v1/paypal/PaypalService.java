@@ -1,10 +1,11 @@
 package com.akgarg.paymentservice.v1.paypal;
 
 import com.akgarg.paymentservice.eventpublisher.PaymentEvent;
-import com.akgarg.paymentservice.eventpublisher.PaymentEventPublisher;
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
 import com.akgarg.paymentservice.exception.PaymentException;
 import com.akgarg.paymentservice.payment.PaymentDetail;
 import com.akgarg.paymentservice.payment.PaymentDetailDto;
+import com.akgarg.paymentservice.payment.PaymentGateway;
 import com.akgarg.paymentservice.payment.PaymentStatus;
 import com.akgarg.paymentservice.v1.db.DatabaseService;
 import com.akgarg.paymentservice.v1.paypal.request.CancelPaymentRequest;
@@ -14,7 +15,10 @@ import com.akgarg.paymentservice.v1.paypal.response.CancelPaymentResponse;
 import com.akgarg.paymentservice.v1.paypal.response.CaptureOrderResponse;
 import com.akgarg.paymentservice.v1.paypal.response.CreateOrderResponse;
 import com.akgarg.paymentservice.v1.paypal.response.GetOrderResponse;
+import com.akgarg.paymentservice.v1.status.PaymentStatusChangeBus;
 import com.akgarg.paymentservice.v1.subscription.SubscriptionCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.paypal.sdk.PaypalServerSdkClient;
 import com.paypal.sdk.models.*;
 import lombok.RequiredArgsConstructor;
@@ -23,11 +27,19 @@ import org.springframework.core.env.Environment;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.util.Currency;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
+import static com.akgarg.paymentservice.utils.PaymentServiceUtils.toMajorUnits;
+import static com.akgarg.paymentservice.utils.PaymentServiceUtils.toMinorUnits;
+
 @SuppressWarnings("LoggingSimilarMessage")
 @Slf4j
 @Service
@@ -36,20 +48,36 @@ public class PaypalService {
 
     private static final String FAILED_TO_PROCESS_PAYMENT_REQ_MSG = "Failed to process the payment request";
     private static final String REQUEST_VALIDATION_FAILED_MSG = "Request validation failed";
-    private static final String PAYMENT_GATEWAY_NAME = "paypal";
+    private static final List<PaymentStatus> CANCELLABLE_STATUSES = List.of(PaymentStatus.CREATED, PaymentStatus.PROCESSING, PaymentStatus.FAILED);
+    private static final List<PaymentStatus> COMPLETABLE_STATUSES = List.of(PaymentStatus.CREATED, PaymentStatus.PROCESSING, PaymentStatus.CANCELLED, PaymentStatus.FAILED);
 
-    private final PaymentEventPublisher paymentEventPublisher;
+    private final ObjectMapper objectMapper;
     private final SubscriptionCache subscriptionCache;
     private final PaypalServerSdkClient paypalClient;
     private final DatabaseService databaseService;
     private final Environment environment;
+    private final Executor paymentPreCheckExecutor;
+    private final PaymentStatusChangeBus paymentStatusChangeBus;
 
     public CreateOrderResponse createOrder(final CreateOrderRequest request) throws Exception {
         log.info("Received create order request {}", request);
 
         final var packId = request.packId();
 
-        final var subscriptionPack = subscriptionCache.getSubscriptionPack(packId);
+        // independent lookups are fanned out; their results are still checked in the original order
+        final var subscriptionPackFuture = CompletableFuture.supplyAsync(
+                () -> subscriptionCache.getSubscriptionPack(packId), paymentPreCheckExecutor);
+        final var activeSubscriptionFuture = CompletableFuture.supplyAsync(
+                () -> subscriptionCache.getActiveSubscription(request.userId()), paymentPreCheckExecutor);
+        // runs on the thread that completed the lookup: a pre-check task must never submit to the executor, which may
+        // block submitters at its concurrency limit while the task holds one of the permits
+        final var activeSubscriptionPackFuture = activeSubscriptionFuture.thenApply(
+                activeSubscription -> activeSubscription.flatMap(subscription -> subscriptionCache.getSubscriptionPack(subscription.packId())));
+        final var incompletePaymentsFuture = CompletableFuture.supplyAsync(
+                () -> databaseService.getPaymentDetailForUserByPaymentStatus(request.userId(), List.of(PaymentStatus.CREATED, PaymentStatus.PROCESSING)),
+                paymentPreCheckExecutor);
+
+        final var subscriptionPack = await(subscriptionPackFuture);
 
         if (subscriptionPack.isEmpty()) {
             log.error("No subscription plan configured for pack {}", packId);
@@ -60,7 +88,7 @@ public class PaypalService {
                     .build();
         }
 
-        final var activeSubscription = subscriptionCache.getActiveSubscription(request.userId());
+        final var activeSubscription = await(activeSubscriptionFuture);
 
         if (activeSubscription.isPresent()) {
             final var subscription = activeSubscription.get();
@@ -74,7 +102,7 @@ public class PaypalService {
                         .build();
             }
 
-            final var activeSubscriptionPack = subscriptionCache.getSubscriptionPack(subscription.packId());
+            final var activeSubscriptionPack = await(activeSubscriptionPackFuture);
 
             if (activeSubscriptionPack.isPresent() &&
                     activeSubscriptionPack.get().defaultPack() != Boolean.TRUE &&
@@ -89,10 +117,21 @@ public class PaypalService {
             }
         }
 
-        final var incompletePayments = databaseService.getPaymentDetailForUserByPaymentStatus(request.userId(),
-                List.of(PaymentStatus.CREATED, PaymentStatus.PROCESSING));
+        final var incompletePayments = await(incompletePaymentsFuture);
 
         if (!incompletePayments.isEmpty()) {
+            final var reusablePayment = findReusablePayment(request, subscriptionPack.get().price(), incompletePayments);
+
+            if (reusablePayment.isPresent()) {
+                log.info("Reusing payment order {} created for the same pack and amount", reusablePayment.get().getId());
+                return CreateOrderResponse.builder()
+                        .statusCode(HttpStatus.OK.value())
+                        .message("Existing payment order reused")
+                        .orderId(reusablePayment.get().getId())
+                        .approvalUrl(reusablePayment.get().getApprovalUrl())
+                        .build();
+            }
+
             final var ids = incompletePayments.stream().map(PaymentDetail::getId).collect(Collectors.joining(", "));
             log.info("Incomplete payment found with id {}", ids);
             return CreateOrderResponse.builder()
@@ -181,7 +220,7 @@ public class PaypalService {
                     "Failed to create order");
         }
 
-        final var paymentDetails = saveOrderInDatabase(request, order);
+        final var paymentDetails = saveOrderInDatabase(request, order, approvalLink.get().getHref());
 
         log.info("Payment order created with id {}", paymentDetails.getId());
 
@@ -233,7 +272,7 @@ public class PaypalService {
 
         final var paymentDetail = paymentDetailOptional.get();
 
-        if (!Objects.equals(paymentDetail.getPaymentStatus(), PaymentStatus.CREATED.name())) {
+        if (paymentDetail.getPaymentStatus() != PaymentStatus.CREATED) {
             log.info("Payment status is {}. Ignoring capture order request", paymentDetail.getPaymentStatus());
             return new CaptureOrderResponse(
                     "Payment status is %s".formatted(paymentDetail.getPaymentStatus()),
@@ -242,19 +281,27 @@ public class PaypalService {
         }
 
         log.info("Updating payment status to {}", PaymentStatus.PROCESSING);
-        paymentDetail.setPaymentStatus(PaymentStatus.PROCESSING.name());
-        databaseService.updatePaymentDetails(paymentDetail);
 
-        final var ordersCaptureInput = new OrdersCaptureInput.Builder()
-                .id(paymentId)
-                .prefer("return=minimal")
-                .build();
+        // a concurrent capture or webhook may have moved the payment on since it was read
+        if (!databaseService.transitionStatus(paymentId, List.of(PaymentStatus.CREATED), PaymentStatus.PROCESSING, System.currentTimeMillis(), null)) {
+            log.info("Payment is no longer {}. Ignoring capture order request", PaymentStatus.CREATED);
+            return new CaptureOrderResponse("Payment is already being processed", HttpStatus.OK.value());
+        }
 
-        log.info("Sending order capture request: {}", ordersCaptureInput);
-        final var orderCaptureResponse = paypalClient.getOrdersController().ordersCapture(ordersCaptureInput);
-        log.info("Order capture response status {} with code {}", orderCaptureResponse.getResult().getStatus(), orderCaptureResponse.getStatusCode());
+        paymentDetail.setPaymentStatus(PaymentStatus.PROCESSING);
+
+        final boolean captured;
 
-        if (orderCaptureResponse.getStatusCode() == HttpStatus.CREATED.value() && orderCaptureResponse.getResult().getStatus() == OrderStatus.COMPLETED) {
+        try {
+            captured = capturePaypalOrder(paymentId);
+        } catch (Exception e) {
+            // back to CREATED, so the retried webhook or request captures again instead of finding it PROCESSING
+            log.warn("Order capture failed for payment {}, moving it back to {}", paymentId, PaymentStatus.CREATED);
+            databaseService.transitionStatus(paymentId, List.of(PaymentStatus.PROCESSING), PaymentStatus.CREATED, System.currentTimeMillis(), null);
+            throw e;
+        }
+
+        if (captured) {
             completePayment(paymentId, paymentDetail);
         }
 
@@ -264,6 +311,24 @@ public class PaypalService {
         );
     }
 
+    /**
+     * Captures the PayPal order and returns whether the capture completed. The request id makes a capture repeated
+     * after a failure or timeout return the first result instead of capturing twice.
+     */
+    boolean capturePaypalOrder(final String paymentId) throws Exception {
+        final var ordersCaptureInput = new OrdersCaptureInput.Builder()
+                .id(paymentId)
+                .paypalRequestId("capture-" + paymentId)
+                .prefer("return=minimal")
+                .build();
+
+        log.info("Sending order capture request: {}", ordersCaptureInput);
+        final var orderCaptureResponse = paypalClient.getOrdersController().ordersCapture(ordersCaptureInput);
+        log.info("Order capture response status {} with code {}", orderCaptureResponse.getResult().getStatus(), orderCaptureResponse.getStatusCode());
+
+        return orderCaptureResponse.getStatusCode() == HttpStatus.CREATED.value() && orderCaptureResponse.getResult().getStatus() == OrderStatus.COMPLETED;
+    }
+
     public CancelPaymentResponse cancelPayment(final CancelPaymentRequest request) {
         log.info("Received Cancel payment request {}", request);
 
@@ -279,7 +344,7 @@ public class PaypalService {
                     .build();
         }
 
-        if (paymentDetailOptional.get().getPaymentStatus().equals(PaymentStatus.CANCELLED.name())) {
+        if (paymentDetailOptional.get().getPaymentStatus() == PaymentStatus.CANCELLED) {
             log.info("Payment is already cancelled");
             return CancelPaymentResponse.builder()
                     .success(false)
@@ -288,11 +353,24 @@ public class PaypalService {
                     .build();
         }
 
-        paymentDetailOptional.get().setPaymentStatus(PaymentStatus.CANCELLED.name());
-        databaseService.updatePaymentDetails(paymentDetailOptional.get());
+        final var cancelledAt = System.currentTimeMillis();
+
+        if (!databaseService.transitionStatus(paymentId, CANCELLABLE_STATUSES, PaymentStatus.CANCELLED, cancelledAt, null)) {
+            log.info("Payment can't be cancelled anymore");
+            return CancelPaymentResponse.builder()
+                    .success(false)
+                    .statusCode(HttpStatus.CONFLICT.value())
+                    .message("Payment can no longer be cancelled")
+                    .build();
+        }
 
         log.info("Payment cancelled successfully");
 
+        final var paymentDetail = paymentDetailOptional.get();
+        paymentDetail.setPaymentStatus(PaymentStatus.CANCELLED);
+        paymentDetail.setUpdatedAt(cancelledAt);
+        paymentStatusChangeBus.publish(PaymentDetailDto.fromPaymentDetail(paymentDetail));
+
         return CancelPaymentResponse.builder()
                 .success(true)
                 .statusCode(HttpStatus.OK.value())
@@ -300,71 +378,49 @@ public class PaypalService {
                 .build();
     }
 
-    public void processWebhook(final Map<String, Object> requestBody) throws Exception {
+    public void processWebhook(final PaypalWebhookEvent event) throws Exception {
         if (log.isDebugEnabled()) {
-            log.debug("Paypal Webhook request: {}", requestBody);
+            log.debug("Paypal Webhook request: {}", event);
         }
 
-        final var eventType = PaypalWebhookEventType.fromValue(requestBody.get("event_type").toString());
+        final var eventType = PaypalWebhookEventType.fromValue(event.eventType());
 
         if (eventType.isEmpty()) {
-            log.info("Not processing webhook request for event {}", requestBody.get("event_type"));
+            log.info("Not processing webhook request for event {}", event.eventType());
             return;
         }
 
         switch (eventType.get()) {
-            case ORDER_APPROVED -> handleOrderApprovedWebhook(requestBody);
-            case PAYMENT_CAPTURE_COMPLETE -> handlePaymentCaptureCompleteWebhook(requestBody);
+            case ORDER_APPROVED -> handleOrderApprovedWebhook(event);
+            case PAYMENT_CAPTURE_COMPLETE -> handlePaymentCaptureCompleteWebhook(event);
             default -> log.info("Unsupported paypal webhook event type {}", eventType);
         }
     }
 
-    private void handleOrderApprovedWebhook(final Map<String, Object> requestBody) throws Exception {
-        final var webhookId = requestBody.get("id").toString();
-        log.info("Processing {} Paypal Webhook request for webhook id {}", PaypalWebhookEventType.ORDER_APPROVED, webhookId);
-
-        final String paymentId;
-        final Map<?, ?> resourceMap;
+    private void handleOrderApprovedWebhook(final PaypalWebhookEvent event) throws Exception {
+        log.info("Processing {} Paypal Webhook request for webhook id {}", PaypalWebhookEventType.ORDER_APPROVED, event.id());
 
-        if (requestBody.get("resource") instanceof Map<?, ?> mp) {
-            resourceMap = mp;
-            paymentId = resourceMap.get("id").toString();
-        } else {
+        if (event.resourceId() == null) {
             throw new PaymentException(HttpStatus.BAD_REQUEST.value(),
                     List.of("Failed to extract order Id"),
                     FAILED_TO_PROCESS_PAYMENT_REQ_MSG
             );
         }
 
-        final var payer = resourceMap.get("payer");
-
-        final String payerId;
-
-        if (payer instanceof Map<?, ?> payerMap) {
-            payerId = payerMap.get("payer_id").toString();
-        } else {
-            payerId = "null";
-        }
-
         final var request = new CaptureOrderRequest(
-                paymentId,
-                payerId
+                event.resourceId(),
+                String.valueOf(event.payerId())
         );
 
         captureOrder(request);
     }
 
-    private void handlePaymentCaptureCompleteWebhook(final Map<String, Object> requestBody) {
-        final var webhookId = requestBody.get("id").toString();
-        log.info("Processing {} Paypal Webhook request for webhook id {}", PaypalWebhookEventType.PAYMENT_CAPTURE_COMPLETE, webhookId);
+    private void handlePaymentCaptureCompleteWebhook(final PaypalWebhookEvent event) {
+        log.info("Processing {} Paypal Webhook request for webhook id {}", PaypalWebhookEventType.PAYMENT_CAPTURE_COMPLETE, event.id());
 
-        final String paymentId;
+        final var paymentId = event.relatedOrderId();
 
-        if (requestBody.get("resource") instanceof Map<?, ?> resourceMap &&
-                resourceMap.get("supplementary_data") instanceof Map<?, ?> supplementaryData &&
-                supplementaryData.get("related_ids") instanceof Map<?, ?> relatedIds) {
-            paymentId = relatedIds.get("order_id").toString();
-        } else {
+        if (paymentId == null) {
             log.error("Failed to extract order id from webhook body");
             throw new PaymentException(HttpStatus.BAD_REQUEST.value(), List.of("Failed to extract order Id"), FAILED_TO_PROCESS_PAYMENT_REQ_MSG);
         }
@@ -380,52 +436,116 @@ public class PaypalService {
     }
 
     private void completePayment(final String paymentId, final PaymentDetail paymentDetail) {
-        if (Objects.equals(paymentDetail.getPaymentStatus(), PaymentStatus.COMPLETED.name())) {
+        if (paymentDetail.getPaymentStatus() == PaymentStatus.COMPLETED) {
             log.info("Payment with id {} already marked as {}", paymentId, PaymentStatus.COMPLETED);
             return;
         }
 
         log.info("updating payment status to {} for id: {}", PaymentStatus.COMPLETED, paymentId);
 
-        paymentDetail.setPaymentStatus(PaymentStatus.COMPLETED.name());
-        paymentDetail.setCompletedAt(System.currentTimeMillis());
+        final var completedAt = System.currentTimeMillis();
 
-        final var updatedPaymentDetails = databaseService.updatePaymentDetails(paymentDetail);
+        // the success event is stored with the transition and published by the outbox relay, only if this call wins
+        final var outboxEvent = paymentSuccessOutboxEvent(paymentDetail, completedAt);
+        if (!databaseService.transitionStatus(paymentId, COMPLETABLE_STATUSES, PaymentStatus.COMPLETED, completedAt, completedAt, outboxEvent)) {
+            log.info("Payment with id {} already marked as {}", paymentId, PaymentStatus.COMPLETED);
+            return;
+        }
 
-        log.info("Payment status updated successfully to {} for id: {}", updatedPaymentDetails.getPaymentStatus(), updatedPaymentDetails.getId());
+        paymentDetail.setPaymentStatus(PaymentStatus.COMPLETED);
+        paymentDetail.setUpdatedAt(completedAt);
+        paymentDetail.setCompletedAt(completedAt);
 
-        publishPaymentSuccessEvent(updatedPaymentDetails);
+        log.info("Payment status updated successfully to {} for id: {}", paymentDetail.getPaymentStatus(), paymentId);
+
+        subscriptionCache.evictActiveSubscription(paymentDetail.getUserId());
+        paymentStatusChangeBus.publish(PaymentDetailDto.fromPaymentDetail(paymentDetail));
     }
 
-    private void publishPaymentSuccessEvent(final PaymentDetail paymentDetail) {
+    private OutboxEvent paymentSuccessOutboxEvent(final PaymentDetail paymentDetail, final long createdAt) {
         final var paymentEvent = new PaymentEvent(
                 paymentDetail.getId(),
                 paymentDetail.getUserId(),
                 paymentDetail.getPackId(),
-                paymentDetail.getAmount(),
-                paymentDetail.getCurrency(),
-                paymentDetail.getPaymentGateway(),
+                toMajorUnits(paymentDetail.getAmountMinor(), paymentDetail.getCurrency()).doubleValue(),
+                paymentDetail.getCurrency().getCurrencyCode(),
+                paymentDetail.getPaymentGateway().getValue(),
                 paymentDetail.getEmail(),
                 paymentDetail.getName()
         );
-        paymentEventPublisher.publishPaymentSuccess(paymentEvent);
+
+        try {
+            return new OutboxEvent(paymentDetail.getId(), OutboxEvent.PAYMENT_SUCCESS, objectMapper.writeValueAsString(paymentEvent), createdAt);
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing payment success event for id {}", paymentDetail.getId(), e);
+            throw new PaymentException(HttpStatus.INTERNAL_SERVER_ERROR.value(), List.of("Failed to record payment success event"), FAILED_TO_PROCESS_PAYMENT_REQ_MSG);
+        }
+    }
+
+    /**
+     * With {@code paypal.order.reuse.enabled} (off by default), a checkout repeated for the same pack and amount gets
+     * the user's CREATED order back while its approval link is valid, rather than a conflict. Only a lone incomplete
+     * payment is reused; one the payer already approved is PROCESSING and still conflicts.
+     */
+    private Optional<PaymentDetail> findReusablePayment(final CreateOrderRequest request,
+                                                        final Double packPrice,
+                                                        final List<PaymentDetail> incompletePayments) {
+        if (!environment.getProperty("paypal.order.reuse.enabled", Boolean.class, false) ||
+                incompletePayments.size() != 1 ||
+                !packPrice.equals(request.amount())) {
+            return Optional.empty();
+        }
+
+        final var paymentDetail = incompletePayments.getFirst();
+
+        if (paymentDetail.getPaymentStatus() != PaymentStatus.CREATED ||
+                paymentDetail.getApprovalUrl() == null ||
+                paymentDetail.getApprovalExpiresAt() == null ||
+                paymentDetail.getApprovalExpiresAt() <= System.currentTimeMillis() ||
+                !paymentDetail.getPackId().equals(request.packId()) ||
+                !paymentDetail.getCurrency().getCurrencyCode().equals(request.currencyCode()) ||
+                toMajorUnits(paymentDetail.getAmountMinor(), paymentDetail.getCurrency()).compareTo(BigDecimal.valueOf(request.amount())) != 0) {
+            return Optional.empty();
+        }
+
+        return Optional.of(paymentDetail);
     }
 
-    private PaymentDetail saveOrderInDatabase(final CreateOrderRequest request, final Order order) {
+    private PaymentDetail saveOrderInDatabase(final CreateOrderRequest request, final Order order, final String approvalUrl) {
         final var paymentDetail = new PaymentDetail();
         paymentDetail.setId(order.getId());
         paymentDetail.setUserId(request.userId());
         paymentDetail.setEmail(request.email());
         paymentDetail.setName(request.name());
         paymentDetail.setPackId(request.packId());
-        paymentDetail.setPaymentStatus(PaymentStatus.CREATED.name());
-        paymentDetail.setPaymentGateway(PAYMENT_GATEWAY_NAME);
-        paymentDetail.setAmount(Double.valueOf(order.getPurchaseUnits().getFirst().getAmount().getValue()));
-        paymentDetail.setCurrency(order.getPurchaseUnits().getFirst().getAmount().getCurrencyCode());
+        final var orderAmount = order.getPurchaseUnits().getFirst().getAmount();
+        final var currency = Currency.getInstance(orderAmount.getCurrencyCode());
+        paymentDetail.setPaymentStatus(PaymentStatus.CREATED);
+        paymentDetail.setPaymentGateway(PaymentGateway.PAYPAL);
+        paymentDetail.setAmountMinor(toMinorUnits(orderAmount.getValue(), currency));
+        paymentDetail.setCurrency(currency);
         paymentDetail.setCreatedAt(System.currentTimeMillis());
         paymentDetail.setUpdatedAt(System.currentTimeMillis());
         paymentDetail.setDeleted(false);
+        paymentDetail.setApprovalUrl(approvalUrl);
+        paymentDetail.setApprovalExpiresAt(paymentDetail.getCreatedAt() +
+                environment.getProperty("paypal.order.reuse.approval-validity", Long.class, 10_200_000L));
         return databaseService.savePaymentDetails(paymentDetail);
     }
 
+    /**
+     * Waits for a pre-check lookup and rethrows its original exception instead of the {@link CompletionException}
+     * wrapper, so callers see the same errors as when the lookups ran sequentially.
+     */
+    private static <T> T await(final CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
 }
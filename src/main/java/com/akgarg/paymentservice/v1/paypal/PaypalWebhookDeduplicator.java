@@ -0,0 +1,139 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recognizes PayPal webhook events that were already processed, by event id.
+ * <p>
+ * {@link PaypalWebhookEventStore} is the record of processed ids. A Bloom filter of the ids this instance has processed
+ * sits in front of it, so that {@link #isKnownDuplicate(String)} only asks the store about ids the filter might
+ * contain, and new events are accepted without a store lookup. The filter is replaced every
+ * {@code paypal.webhook.dedup.ttl} milliseconds, keeping the previous one for lookups, so it forgets ids roughly when
+ * the store does.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PaypalWebhookDeduplicator {
+
+    private final PaypalWebhookEventStore paypalWebhookEventStore;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final ReentrantLock rotationLock = new ReentrantLock();
+
+    private long expectedInsertions;
+    private double falsePositiveProbability;
+    private long ttlMillis;
+
+    private volatile BloomFilter currentFilter;
+    private volatile BloomFilter previousFilter;
+    private volatile long currentFilterCreatedAt;
+
+    private Counter newEvents;
+    private Counter duplicateEvents;
+    private Counter bloomNegatives;
+    private Counter bloomFalsePositives;
+
+    @PostConstruct
+    public void init() {
+        expectedInsertions = environment.getProperty("paypal.webhook.dedup.bloom.expected-insertions", Long.class, 100_000L);
+        falsePositiveProbability = environment.getProperty("paypal.webhook.dedup.bloom.false-positive-probability", Double.class, 0.01);
+        ttlMillis = environment.getProperty("paypal.webhook.dedup.ttl", Long.class, 259_200_000L);
+
+        currentFilter = new BloomFilter(expectedInsertions, falsePositiveProbability);
+        previousFilter = new BloomFilter(expectedInsertions, falsePositiveProbability);
+        currentFilterCreatedAt = System.currentTimeMillis();
+
+        newEvents = eventsCounter("new");
+        duplicateEvents = eventsCounter("duplicate");
+        bloomNegatives = bloomCounter("negative");
+        bloomFalsePositives = bloomCounter("false-positive");
+    }
+
+    /**
+     * Cheap check for the ingestion path: the store is only asked when the Bloom filter might contain the id. An id
+     * processed by another instance is not in this instance's filter, so it is not recognized here; processing checks
+     * {@link #isProcessed(String)} again.
+     */
+    public boolean isKnownDuplicate(final String eventId) {
+        if (!currentFilter.mightContain(eventId) && !previousFilter.mightContain(eventId)) {
+            bloomNegatives.increment();
+            newEvents.increment();
+            return false;
+        }
+
+        if (isProcessed(eventId)) {
+            duplicateEvents.increment();
+            return true;
+        }
+
+        bloomFalsePositives.increment();
+        newEvents.increment();
+        return false;
+    }
+
+    /**
+     * Asks the store directly. If the store can't be reached the event is treated as new, since processing it again
+     * is safe, only slower.
+     */
+    public boolean isProcessed(final String eventId) {
+        try {
+            return paypalWebhookEventStore.isProcessed(eventId);
+        } catch (Exception e) {
+            log.warn("Failed to look up webhook event {} in the dedup store", eventId, e);
+            return false;
+        }
+    }
+
+    public void markProcessed(final String eventId) {
+        rotateFilterIfExpired();
+        currentFilter.put(eventId);
+
+        try {
+            paypalWebhookEventStore.markProcessed(eventId);
+        } catch (Exception e) {
+            log.warn("Failed to record webhook event {} in the dedup store", eventId, e);
+        }
+    }
+
+    private void rotateFilterIfExpired() {
+        if (System.currentTimeMillis() - currentFilterCreatedAt < ttlMillis) {
+            return;
+        }
+
+        rotationLock.lock();
+        try {
+            if (System.currentTimeMillis() - currentFilterCreatedAt >= ttlMillis) {
+                previousFilter = currentFilter;
+                currentFilter = new BloomFilter(expectedInsertions, falsePositiveProbability);
+                currentFilterCreatedAt = System.currentTimeMillis();
+            }
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    private Counter eventsCounter(final String result) {
+        return Counter.builder("paypal.webhook.dedup.events")
+                .description("Webhook events checked on receipt, by whether they were already processed")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter bloomCounter(final String result) {
+        return Counter.builder("paypal.webhook.dedup.bloom")
+                .description("Bloom filter answers that settled a check without the store, or were wrong")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+}
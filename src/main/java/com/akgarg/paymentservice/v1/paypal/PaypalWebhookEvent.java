@@ -0,0 +1,35 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import jakarta.annotation.Nullable;
+
+import static com.akgarg.paymentservice.utils.PaymentServiceUtils.maskString;
+
+/**
+ * The parts of a PayPal webhook this service uses. Any of them may be missing from a webhook.
+ *
+ * @param id             the event id, {@code id}
+ * @param eventType      {@code event_type}
+ * @param resourceId     {@code resource.id}, the order id for order events
+ * @param payerId        {@code resource.payer.payer_id}
+ * @param relatedOrderId {@code resource.supplementary_data.related_ids.order_id}, the order id for capture events
+ */
+public record PaypalWebhookEvent(
+        @Nullable String id,
+        @Nullable String eventType,
+        @Nullable String resourceId,
+        @Nullable String payerId,
+        @Nullable String relatedOrderId
+) {
+
+    @Override
+    public String toString() {
+        return "PaypalWebhookEvent{" +
+                "id='" + id + '\'' +
+                ", eventType='" + eventType + '\'' +
+                ", resourceId='" + resourceId + '\'' +
+                ", payerId='" + maskString(payerId) + '\'' +
+                ", relatedOrderId='" + relatedOrderId + '\'' +
+                '}';
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Reads a {@link PaypalWebhookEvent} from a webhook body in one pass over the token stream. Only the fields on the
+ * paths of the event are read; every other value, such as links, purchase units and addresses, is skipped without
+ * being materialized. Field names are matched against the parser's canonicalized names, so they aren't allocated
+ * either.
+ */
+final class PaypalWebhookEventParser {
+
+    private PaypalWebhookEventParser() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    static PaypalWebhookEvent parse(final JsonFactory jsonFactory, final String body) throws IOException {
+        try (final var parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Webhook body is not a JSON object");
+            }
+
+            final var event = new EventFields();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final var name = parser.currentName();
+                final var token = parser.nextToken();
+
+                switch (name) {
+                    case "id" -> event.id = scalar(parser, token);
+                    case "event_type" -> event.eventType = scalar(parser, token);
+                    case "resource" -> parseResource(parser, token, event);
+                    default -> parser.skipChildren();
+                }
+            }
+
+            return new PaypalWebhookEvent(event.id, event.eventType, event.resourceId, event.payerId, event.relatedOrderId);
+        }
+    }
+
+    private static void parseResource(final JsonParser parser, final JsonToken token, final EventFields event) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = parser.currentName();
+            final var valueToken = parser.nextToken();
+
+            switch (name) {
+                case "id" -> event.resourceId = scalar(parser, valueToken);
+                case "payer" -> event.payerId = nested(parser, valueToken, "payer_id");
+                case "supplementary_data" -> parseSupplementaryData(parser, valueToken, event);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseSupplementaryData(final JsonParser parser,
+                                               final JsonToken token,
+                                               final EventFields event) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = parser.currentName();
+            final var valueToken = parser.nextToken();
+
+            if ("related_ids".equals(name)) {
+                event.relatedOrderId = nested(parser, valueToken, "order_id");
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads one scalar field of the object starting at {@code token}, skipping the rest of it.
+     */
+    private static String nested(final JsonParser parser, final JsonToken token, final String fieldName) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+
+        String value = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final var name = parser.currentName();
+            final var valueToken = parser.nextToken();
+
+            if (fieldName.equals(name)) {
+                value = scalar(parser, valueToken);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return value;
+    }
+
+    private static String scalar(final JsonParser parser, final JsonToken token) throws IOException {
+        if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+            return parser.getText();
+        }
+
+        parser.skipChildren();
+        return null;
+    }
+
+    private static final class EventFields {
+        private String id;
+        private String eventType;
+        private String resourceId;
+        private String payerId;
+        private String relatedOrderId;
+    }
+
+}
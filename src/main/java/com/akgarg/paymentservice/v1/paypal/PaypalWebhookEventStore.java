@@ -0,0 +1,12 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+/**
+ * Remembers the ids of PayPal webhook events that have been processed, for a limited time.
+ */
+public interface PaypalWebhookEventStore {
+
+    boolean isProcessed(String eventId);
+
+    void markProcessed(String eventId);
+
+}
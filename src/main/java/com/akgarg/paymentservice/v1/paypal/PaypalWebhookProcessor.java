@@ -0,0 +1,345 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.akgarg.paymentservice.exception.PaymentException;
+import com.akgarg.paymentservice.v1.paypal.PaypalWebhookStore.StoredWebhook;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accepts PayPal webhooks by writing them to a {@link PaypalWebhookStore}, so the webhook can be acknowledged before it
+ * is processed, and processes them on a fixed pool of {@code paypal.webhook.workers} threads.
+ * <p>
+ * Webhooks for the same order are processed one at a time in the order they were received, webhooks for different
+ * orders in parallel. A failed webhook is retried with exponential backoff, holding back the later webhooks of its
+ * order, and moved to the dead-letter directory after {@code paypal.webhook.retry.max-attempts} attempts or on an
+ * error retrying can't fix.
+ * <p>
+ * Events already processed, by PayPal event id, are acknowledged without being stored when this instance recognizes
+ * them on receipt, and skipped without touching the database or PayPal when the {@link PaypalWebhookDeduplicator}
+ * recognizes them before processing.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PaypalWebhookProcessor {
+
+    private static final String WEBHOOK_PROCESSING_FAILED_MSG = "Webhook processing failed";
+
+    private final PaypalService paypalService;
+    private final PaypalWebhookDeduplicator paypalWebhookDeduplicator;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "paypal-webhook-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReentrantLock lanesLock = new ReentrantLock();
+    // guarded by lanesLock, webhooks waiting per order, the first one is being processed
+    private final Map<String, Deque<QueuedWebhook>> lanes = new HashMap<>();
+    private final NavigableMap<Long, QueuedWebhook> pending = new ConcurrentSkipListMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    private PaypalWebhookStore store;
+    private ExecutorService workers;
+    private int capacity;
+    private int maxAttempts;
+    private long initialBackoffMillis;
+    private long maxBackoffMillis;
+
+    private Timer processedTimer;
+    private Timer failedTimer;
+    private Timer duplicateTimer;
+    private Counter retriedWebhooks;
+
+    @PostConstruct
+    public void init() throws IOException {
+        capacity = environment.getProperty("paypal.webhook.queue.capacity", Integer.class, 10_000);
+        maxAttempts = environment.getProperty("paypal.webhook.retry.max-attempts", Integer.class, 8);
+        initialBackoffMillis = environment.getProperty("paypal.webhook.retry.initial-backoff", Long.class, 1_000L);
+        maxBackoffMillis = environment.getProperty("paypal.webhook.retry.max-backoff", Long.class, 300_000L);
+        final var workerCount = environment.getProperty("paypal.webhook.workers", Integer.class, 8);
+        final var directory = Path.of(environment.getProperty("paypal.webhook.queue.directory", "data/paypal-webhooks"));
+
+        final var workerNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            final var thread = new Thread(runnable, "paypal-webhook-worker-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        store = new PaypalWebhookStore(directory);
+        deadLettered.set(store.deadLetterCount());
+
+        Gauge.builder("paypal.webhook.queue.depth", depth, AtomicInteger::get)
+                .description("Number of received webhooks not yet processed or dead-lettered")
+                .register(meterRegistry);
+        Gauge.builder("paypal.webhook.queue.lag", this, PaypalWebhookProcessor::oldestPendingAgeMillis)
+                .description("Age of the oldest webhook not yet processed")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("paypal.webhook.dead-lettered", deadLettered, AtomicLong::get)
+                .description("Number of webhooks in the dead-letter directory")
+                .register(meterRegistry);
+        processedTimer = processingTimer("processed");
+        failedTimer = processingTimer("dead-lettered");
+        duplicateTimer = processingTimer("duplicate");
+        retriedWebhooks = Counter.builder("paypal.webhook.retried")
+                .description("Number of webhook processing attempts that failed and were scheduled again")
+                .register(meterRegistry);
+
+        final var storedWebhooks = store.load();
+        for (final var storedWebhook : storedWebhooks) {
+            try {
+                dispatch(storedWebhook, parse(storedWebhook.body()));
+            } catch (PaymentException e) {
+                log.error("Dead-lettering unreadable stored webhook {}", storedWebhook.sequence(), e);
+                store.deadLetter(storedWebhook);
+                deadLettered.incrementAndGet();
+            }
+        }
+
+        log.info("Opened PayPal webhook queue at {} with {} pending webhooks", directory.toAbsolutePath(), depth.get());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // webhooks still pending stay on disk and are processed after the next start
+        retryScheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Stores a webhook for processing, unless it is a known duplicate. Once this returns, the webhook survives a
+     * restart.
+     *
+     * @throws PaymentException with status 400 if the body is not a JSON object, or 503 if the queue is full or the
+     *                          webhook could not be stored, so that PayPal delivers it again later
+     */
+    public void enqueue(final String body) {
+        final var event = parse(body);
+        final var eventId = event.id();
+
+        if (eventId != null && paypalWebhookDeduplicator.isKnownDuplicate(eventId)) {
+            log.info("Ignoring duplicate PayPal webhook {}", eventId);
+            return;
+        }
+
+        if (depth.get() >= capacity) {
+            log.warn("Rejecting PayPal webhook, {} webhooks are already pending", depth.get());
+            throw new PaymentException(HttpStatus.SERVICE_UNAVAILABLE.value(), List.of("Webhook queue is full"), WEBHOOK_PROCESSING_FAILED_MSG);
+        }
+
+        final StoredWebhook storedWebhook;
+        try {
+            storedWebhook = store.save(body);
+        } catch (IOException e) {
+            log.error("Failed to store PayPal webhook", e);
+            throw new PaymentException(HttpStatus.SERVICE_UNAVAILABLE.value(), List.of("Failed to store webhook"), WEBHOOK_PROCESSING_FAILED_MSG);
+        }
+
+        dispatch(storedWebhook, event);
+    }
+
+    private void dispatch(final StoredWebhook storedWebhook, final PaypalWebhookEvent event) {
+        final var laneKey = Optional.ofNullable(orderId(event)).orElse("webhook-" + storedWebhook.sequence());
+        final var webhook = new QueuedWebhook(storedWebhook, event);
+
+        pending.put(storedWebhook.sequence(), webhook);
+        depth.incrementAndGet();
+
+        lanesLock.lock();
+        try {
+            final var lane = lanes.get(laneKey);
+
+            if (lane != null) {
+                lane.addLast(webhook);
+                return;
+            }
+
+            lanes.put(laneKey, new ArrayDeque<>(List.of(webhook)));
+        } finally {
+            lanesLock.unlock();
+        }
+
+        workers.execute(() -> process(laneKey));
+    }
+
+    /**
+     * Processes the first webhook of a lane, then hands the lane on to the next webhook, so a lane is only ever worked
+     * on by one thread at a time.
+     */
+    private void process(final String laneKey) {
+        final QueuedWebhook webhook;
+
+        lanesLock.lock();
+        try {
+            webhook = lanes.get(laneKey).getFirst();
+        } finally {
+            lanesLock.unlock();
+        }
+
+        final var eventId = webhook.event.id();
+
+        if (webhook.attempts == 0 && eventId != null && paypalWebhookDeduplicator.isProcessed(eventId)) {
+            log.info("Skipping duplicate PayPal webhook {}", eventId);
+            complete(webhook, duplicateTimer);
+            advance(laneKey);
+            return;
+        }
+
+        webhook.attempts++;
+
+        try {
+            paypalService.processWebhook(webhook.event);
+
+            if (eventId != null) {
+                paypalWebhookDeduplicator.markProcessed(eventId);
+            }
+
+            complete(webhook, processedTimer);
+        } catch (Exception e) {
+            if (isRetryable(e) && webhook.attempts < maxAttempts) {
+                final var backoff = backoffMillis(webhook.attempts);
+                log.warn("Processing webhook {} failed on attempt {}, retrying in {} ms",
+                        webhook.storedWebhook.sequence(), webhook.attempts, backoff, e);
+                retriedWebhooks.increment();
+                retryScheduler.schedule(() -> workers.execute(() -> process(laneKey)), backoff, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            log.error("Dead-lettering webhook {} after {} attempts", webhook.storedWebhook.sequence(), webhook.attempts, e);
+            deadLetter(webhook);
+        }
+
+        advance(laneKey);
+    }
+
+    private void advance(final String laneKey) {
+        lanesLock.lock();
+        try {
+            final var lane = lanes.get(laneKey);
+            lane.removeFirst();
+
+            if (lane.isEmpty()) {
+                lanes.remove(laneKey);
+                return;
+            }
+        } finally {
+            lanesLock.unlock();
+        }
+
+        workers.execute(() -> process(laneKey));
+    }
+
+    private void complete(final QueuedWebhook webhook, final Timer timer) {
+        try {
+            store.delete(webhook.storedWebhook);
+        } catch (IOException e) {
+            // processing is idempotent, so the worst case is processing the webhook again after a restart
+            log.warn("Failed to delete processed webhook {}", webhook.storedWebhook.sequence(), e);
+        }
+
+        remove(webhook, timer);
+    }
+
+    private void deadLetter(final QueuedWebhook webhook) {
+        try {
+            store.deadLetter(webhook.storedWebhook);
+            deadLettered.incrementAndGet();
+        } catch (IOException e) {
+            log.error("Failed to dead-letter webhook {}, it will be processed again after a restart", webhook.storedWebhook.sequence(), e);
+        }
+
+        remove(webhook, failedTimer);
+    }
+
+    private void remove(final QueuedWebhook webhook, final Timer timer) {
+        pending.remove(webhook.storedWebhook.sequence());
+        depth.decrementAndGet();
+        timer.record(Math.max(System.currentTimeMillis() - webhook.storedWebhook.receivedAt(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    private long backoffMillis(final int attempts) {
+        final var backoff = initialBackoffMillis << Math.min(attempts - 1, 30);
+        return backoff > 0 ? Math.min(backoff, maxBackoffMillis) : maxBackoffMillis;
+    }
+
+    private double oldestPendingAgeMillis() {
+        final var oldest = pending.firstEntry();
+        return oldest != null ? Math.max(System.currentTimeMillis() - oldest.getValue().storedWebhook.receivedAt(), 0) : 0;
+    }
+
+    private PaypalWebhookEvent parse(final String body) {
+        try {
+            return PaypalWebhookEventParser.parse(objectMapper.getFactory(), body);
+        } catch (IOException e) {
+            log.warn("Received malformed PayPal webhook", e);
+            throw new PaymentException(HttpStatus.BAD_REQUEST.value(), List.of("Malformed webhook body"), WEBHOOK_PROCESSING_FAILED_MSG);
+        }
+    }
+
+    private Timer processingTimer(final String result) {
+        return Timer.builder("paypal.webhook.processing.lag")
+                .description("Time from receiving a webhook to finishing with it")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A client error means the webhook itself is unusable, so trying it again can't succeed.
+     */
+    private static boolean isRetryable(final Exception e) {
+        return !(e instanceof PaymentException paymentException)
+                || HttpStatus.valueOf(paymentException.getStatusCode()).is5xxServerError();
+    }
+
+    /**
+     * The PayPal order a webhook is about, or {@code null} for webhooks that don't name one.
+     */
+    private static String orderId(final PaypalWebhookEvent event) {
+        if (event.relatedOrderId() != null) {
+            return event.relatedOrderId();
+        }
+
+        return PaypalWebhookEventType.ORDER_APPROVED.value().equals(event.eventType()) ? event.resourceId() : null;
+    }
+
+    private static final class QueuedWebhook {
+
+        private final StoredWebhook storedWebhook;
+        private final PaypalWebhookEvent event;
+
+        // only touched by the thread holding the lane
+        private int attempts;
+
+        private QueuedWebhook(final StoredWebhook storedWebhook, final PaypalWebhookEvent event) {
+            this.storedWebhook = storedWebhook;
+            this.event = event;
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps received webhook bodies on disk until they are processed, one file per webhook named by a sequence number.
+ * A webhook is forced to disk before {@link #save(String)} returns, and is either deleted once processed or moved to
+ * the dead-letter directory. Files are independent, so webhooks can be removed in any order.
+ */
+@Slf4j
+final class PaypalWebhookStore {
+
+    private static final String PENDING_DIRECTORY_NAME = "pending";
+    private static final String DEAD_LETTER_DIRECTORY_NAME = "dead-letter";
+    private static final String FILE_SUFFIX = ".json";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final Path pendingDirectory;
+    private final Path deadLetterDirectory;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    PaypalWebhookStore(final Path directory) throws IOException {
+        this.pendingDirectory = Files.createDirectories(directory.resolve(PENDING_DIRECTORY_NAME));
+        this.deadLetterDirectory = Files.createDirectories(directory.resolve(DEAD_LETTER_DIRECTORY_NAME));
+        nextSequence.set(Math.max(lastSequence(pendingDirectory), lastSequence(deadLetterDirectory)) + 1);
+    }
+
+    /**
+     * Returns the pending webhooks in the order they were received. Files left behind by an interrupted save were
+     * never acknowledged, and are deleted.
+     */
+    List<StoredWebhook> load() throws IOException {
+        final var webhooks = new ArrayList<StoredWebhook>();
+
+        for (final var path : list(pendingDirectory)) {
+            final var name = path.getFileName().toString();
+
+            if (name.endsWith(TEMP_FILE_SUFFIX)) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+
+            webhooks.add(new StoredWebhook(
+                    sequenceOf(name),
+                    Files.readString(path, StandardCharsets.UTF_8),
+                    Files.getLastModifiedTime(path).toMillis()
+            ));
+        }
+
+        webhooks.sort(Comparator.comparingLong(StoredWebhook::sequence));
+        return webhooks;
+    }
+
+    StoredWebhook save(final String body) throws IOException {
+        final var sequence = nextSequence.getAndIncrement();
+        final var path = pendingPath(sequence);
+        final var tempPath = path.resolveSibling(path.getFileName() + TEMP_FILE_SUFFIX);
+
+        try (final var channel = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final var buffer = StandardCharsets.UTF_8.encode(body);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        // the rename makes the webhook visible to load only once its body is complete
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(pendingDirectory);
+        return new StoredWebhook(sequence, body, System.currentTimeMillis());
+    }
+
+    void delete(final StoredWebhook webhook) throws IOException {
+        Files.deleteIfExists(pendingPath(webhook.sequence()));
+    }
+
+    void deadLetter(final StoredWebhook webhook) throws IOException {
+        Files.move(pendingPath(webhook.sequence()),
+                deadLetterDirectory.resolve(fileName(webhook.sequence())),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    long deadLetterCount() {
+        try {
+            return list(deadLetterDirectory).size();
+        } catch (IOException e) {
+            log.warn("Failed to count dead-lettered webhooks", e);
+            return -1;
+        }
+    }
+
+    private Path pendingPath(final long sequence) {
+        return pendingDirectory.resolve(fileName(sequence));
+    }
+
+    private static String fileName(final long sequence) {
+        return "%020d%s".formatted(sequence, FILE_SUFFIX);
+    }
+
+    private static long sequenceOf(final String fileName) {
+        return Long.parseLong(fileName.substring(0, fileName.indexOf('.')));
+    }
+
+    private static long lastSequence(final Path directory) throws IOException {
+        return list(directory).stream()
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(FILE_SUFFIX))
+                .mapToLong(PaypalWebhookStore::sequenceOf)
+                .max()
+                .orElse(0);
+    }
+
+    private static List<Path> list(final Path directory) throws IOException {
+        try (final var files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+
+    private static void syncDirectory(final Path directory) {
+        try (final var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory, the rename is still durable on most file systems
+            log.debug("Could not sync directory {}", directory, e);
+        }
+    }
+
+    record StoredWebhook(long sequence, String body, long receivedAt) {
+    }
+
+}
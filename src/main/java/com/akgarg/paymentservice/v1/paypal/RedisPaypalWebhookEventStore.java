@@ -0,0 +1,50 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps processed webhook event ids in Redis, so a webhook processed by one instance is recognized by all of them.
+ * Each id expires after {@code paypal.webhook.dedup.ttl} milliseconds.
+ */
+@Slf4j
+@Component
+@Profile("prod")
+@RequiredArgsConstructor
+public class RedisPaypalWebhookEventStore implements PaypalWebhookEventStore {
+
+    private static final String PROCESSED_WEBHOOK_REDIS_KEY = "paypal_webhook:";
+    private static final String PROCESSED_MARKER = "1";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Environment environment;
+
+    private long ttlMillis;
+
+    @PostConstruct
+    public void init() {
+        ttlMillis = environment.getProperty("paypal.webhook.dedup.ttl", Long.class, 259_200_000L);
+    }
+
+    @Override
+    public boolean isProcessed(final String eventId) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(getProcessedWebhookKey(eventId)));
+    }
+
+    @Override
+    public void markProcessed(final String eventId) {
+        redisTemplate.opsForValue().set(getProcessedWebhookKey(eventId), PROCESSED_MARKER, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private String getProcessedWebhookKey(final String eventId) {
+        return PROCESSED_WEBHOOK_REDIS_KEY + eventId;
+    }
+
+}
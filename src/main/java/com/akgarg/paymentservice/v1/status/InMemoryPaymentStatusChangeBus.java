@@ -0,0 +1,20 @@
+package com.akgarg.paymentservice.v1.status;
+
+import com.akgarg.paymentservice.payment.PaymentDetailDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+@Component
+@Profile("dev")
+@RequiredArgsConstructor
+public class InMemoryPaymentStatusChangeBus implements PaymentStatusChangeBus {
+
+    private final PaymentStatusPushService paymentStatusPushService;
+
+    @Override
+    public void publish(final PaymentDetailDto paymentDetail) {
+        paymentStatusPushService.onStatusChanged(paymentDetail);
+    }
+
+}
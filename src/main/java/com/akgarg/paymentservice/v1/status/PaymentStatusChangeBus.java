@@ -0,0 +1,13 @@
+package com.akgarg.paymentservice.v1.status;
+
+import com.akgarg.paymentservice.payment.PaymentDetailDto;
+
+/**
+ * Announces payment status changes to every instance, so that each can push them to the clients it holds connections
+ * for. Publishing never fails the caller; a lost announcement only delays the client until its next reconnect.
+ */
+public interface PaymentStatusChangeBus {
+
+    void publish(PaymentDetailDto paymentDetail);
+
+}
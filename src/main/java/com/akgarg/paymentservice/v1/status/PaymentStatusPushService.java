@@ -0,0 +1,307 @@
+package com.akgarg.paymentservice.v1.status;
+
+import com.akgarg.paymentservice.exception.PaymentException;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailDto;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import com.akgarg.paymentservice.v1.db.DatabaseService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Holds the clients waiting for a payment's status to change, as server-sent event streams or long polls, and pushes
+ * the payment to them when a {@link PaymentStatusChangeBus} announces a change. Both use async request processing, so a
+ * waiting client holds no request thread.
+ * <p>
+ * A client is registered before the payment is read, so a change that lands between the two is not missed; at worst
+ * the client sees the same status twice, which is filtered out.
+ * <p>
+ * Stream events are written on a pool of {@code payment.status.push.threads} threads rather than the thread announcing
+ * the change, which may be shared with other Redis listeners, so a slow client only delays its own stream.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PaymentStatusPushService {
+
+    public static final String STATUS_EVENT_NAME = "payment-status";
+
+    private static final Set<PaymentStatus> FINAL_STATUSES = EnumSet.of(PaymentStatus.COMPLETED, PaymentStatus.CANCELLED, PaymentStatus.FAILED);
+
+    private final DatabaseService databaseService;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final Map<String, Set<Consumer<PaymentDetailDto>>> watchers = new ConcurrentHashMap<>();
+    private final AtomicInteger watcherCount = new AtomicInteger();
+
+    private ExecutorService pushExecutor;
+
+    private int maxWatchers;
+    private long streamTimeoutMillis;
+    private long longPollTimeoutMillis;
+
+    @PostConstruct
+    public void init() {
+        maxWatchers = environment.getProperty("payment.status.push.max-connections", Integer.class, 10_000);
+        streamTimeoutMillis = environment.getProperty("payment.status.push.stream-timeout", Long.class, 300_000L);
+        longPollTimeoutMillis = environment.getProperty("payment.status.push.long-poll-timeout", Long.class, 30_000L);
+        final var threads = environment.getProperty("payment.status.push.threads", Integer.class, 8);
+        final var threadNumber = new AtomicInteger();
+        pushExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            final var thread = new Thread(runnable, "payment-status-push-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("payment.status.push.connections", watcherCount, AtomicInteger::get)
+                .description("Number of clients waiting for a payment status change on this instance")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pushExecutor.shutdownNow();
+    }
+
+    /**
+     * Streams the payment as {@value #STATUS_EVENT_NAME} events: its current state first, then each status change,
+     * until it reaches a final status or the stream times out.
+     */
+    public SseEmitter stream(final String paymentId) {
+        final var emitter = new SseEmitter(streamTimeoutMillis);
+        final var statusStream = new StatusStream(paymentId, emitter, pushExecutor);
+
+        final var unwatch = watch(paymentId, statusStream);
+        emitter.onCompletion(unwatch);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(throwable -> unwatch.run());
+
+        statusStream.accept(readPayment(paymentId, unwatch));
+        return emitter;
+    }
+
+    /**
+     * Answers as soon as the payment's status differs from {@code knownStatus}, immediately if it already does, or
+     * with the unchanged payment once the long-poll timeout passes.
+     */
+    public DeferredResult<PaymentDetailDto> poll(final String paymentId, @Nullable final PaymentStatus knownStatus) {
+        final var result = new DeferredResult<PaymentDetailDto>(longPollTimeoutMillis);
+
+        final var unwatch = watch(paymentId, paymentDetail -> {
+            if (paymentDetail.getPaymentStatus() != knownStatus) {
+                result.setResult(paymentDetail);
+            }
+        });
+        result.onCompletion(unwatch);
+
+        final var paymentDetail = readPayment(paymentId, unwatch);
+        result.onTimeout(() -> result.setResult(paymentDetail));
+
+        if (paymentDetail.getPaymentStatus() != knownStatus) {
+            result.setResult(paymentDetail);
+        }
+
+        return result;
+    }
+
+    /**
+     * Pushes a changed payment to the clients of this instance waiting for it.
+     */
+    public void onStatusChanged(final PaymentDetailDto paymentDetail) {
+        final var listeners = watchers.get(paymentDetail.getId());
+
+        if (listeners == null) {
+            return;
+        }
+
+        for (final var listener : listeners) {
+            try {
+                listener.accept(paymentDetail);
+            } catch (Exception e) {
+                log.warn("Failed to push status change of payment {}", paymentDetail.getId(), e);
+            }
+        }
+    }
+
+    private Runnable watch(final String paymentId, final Consumer<PaymentDetailDto> listener) {
+        if (watcherCount.incrementAndGet() > maxWatchers) {
+            watcherCount.decrementAndGet();
+            throw new PaymentException(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                    List.of("Too many clients are waiting for payment status changes"),
+                    "Payment status unavailable");
+        }
+
+        watchers.compute(paymentId, (id, listeners) -> {
+            final var updatedListeners = listeners != null ? listeners : ConcurrentHashMap.<Consumer<PaymentDetailDto>>newKeySet();
+            updatedListeners.add(listener);
+            return updatedListeners;
+        });
+
+        final var unwatched = new AtomicBoolean();
+        return () -> {
+            // completion and error callbacks may both run
+            if (unwatched.compareAndSet(false, true)) {
+                watchers.computeIfPresent(paymentId, (id, listeners) -> {
+                    listeners.remove(listener);
+                    return listeners.isEmpty() ? null : listeners;
+                });
+                watcherCount.decrementAndGet();
+            }
+        };
+    }
+
+    private PaymentDetailDto readPayment(final String paymentId, final Runnable unwatch) {
+        final Optional<PaymentDetail> paymentDetail;
+
+        try {
+            paymentDetail = databaseService.getPaymentDetails(paymentId);
+        } catch (RuntimeException e) {
+            unwatch.run();
+            throw e;
+        }
+
+        if (paymentDetail.isEmpty()) {
+            unwatch.run();
+            throw new PaymentException(HttpStatus.NOT_FOUND.value(),
+                    List.of("No payment order found for id " + paymentId),
+                    "Payment status unavailable");
+        }
+
+        return PaymentDetailDto.fromPaymentDetail(paymentDetail.get());
+    }
+
+    /**
+     * Sends each status of one payment once, in the order the pushes are made, and nothing after a final status. Pushes
+     * are queued and written by one task at a time on the push executor; the lock only guards the queue, never the
+     * write to the client.
+     */
+    private static final class StatusStream implements Consumer<PaymentDetailDto> {
+
+        private final String paymentId;
+        private final SseEmitter emitter;
+        private final Executor executor;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // guarded by lock
+        private final Queue<PaymentDetailDto> pending = new ArrayDeque<>();
+        private boolean draining;
+        private PaymentStatus lastSentStatus;
+        private boolean finished;
+
+        private StatusStream(final String paymentId, final SseEmitter emitter, final Executor executor) {
+            this.paymentId = paymentId;
+            this.emitter = emitter;
+            this.executor = executor;
+        }
+
+        @Override
+        public void accept(final PaymentDetailDto paymentDetail) {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+
+                pending.add(paymentDetail);
+
+                if (draining) {
+                    return;
+                }
+
+                draining = true;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                log.debug("Not pushing status of payment {}, shutting down", paymentId);
+                finish();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                final PaymentDetailDto paymentDetail;
+
+                lock.lock();
+                try {
+                    paymentDetail = pending.poll();
+
+                    if (paymentDetail == null || finished) {
+                        draining = false;
+                        pending.clear();
+                        return;
+                    }
+
+                    // the initial read and a change announcement may race to deliver the same status
+                    if (paymentDetail.getPaymentStatus() == lastSentStatus) {
+                        continue;
+                    }
+
+                    lastSentStatus = paymentDetail.getPaymentStatus();
+
+                    if (FINAL_STATUSES.contains(lastSentStatus)) {
+                        finished = true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    emitter.send(SseEmitter.event().name(STATUS_EVENT_NAME).data(paymentDetail));
+
+                    if (FINAL_STATUSES.contains(paymentDetail.getPaymentStatus())) {
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // the client went away, the error callback unregisters it
+                    log.debug("Failed to push status of payment {}", paymentId, e);
+                    finish();
+                    emitter.completeWithError(e);
+                }
+            }
+        }
+
+        private void finish() {
+            lock.lock();
+            try {
+                finished = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+}
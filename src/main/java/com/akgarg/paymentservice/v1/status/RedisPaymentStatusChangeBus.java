@@ -0,0 +1,58 @@
+package com.akgarg.paymentservice.v1.status;
+
+import com.akgarg.paymentservice.payment.PaymentDetailDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fans status changes out over a Redis pub/sub channel. Every instance subscribes, including the publishing one, and
+ * hands what it receives to its {@link PaymentStatusPushService}. Pub/sub doesn't buffer, so an instance that is
+ * disconnected from Redis misses the changes made meanwhile; its clients see them on their next reconnect.
+ */
+@Slf4j
+@Component
+@Profile("prod")
+@RequiredArgsConstructor
+public class RedisPaymentStatusChangeBus implements PaymentStatusChangeBus {
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+    private final PaymentStatusPushService paymentStatusPushService;
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+
+    private String channel;
+
+    @PostConstruct
+    public void init() {
+        channel = environment.getProperty("payment.status.push.redis-channel", "payment_status_changes");
+        redisMessageListenerContainer.addMessageListener(this::onMessage, new ChannelTopic(channel));
+    }
+
+    @Override
+    public void publish(final PaymentDetailDto paymentDetail) {
+        try {
+            redisTemplate.convertAndSend(channel, objectMapper.writeValueAsString(paymentDetail));
+        } catch (Exception e) {
+            log.error("Failed to publish status change of payment {}", paymentDetail.getId(), e);
+        }
+    }
+
+    private void onMessage(final Message message, final byte[] pattern) {
+        try {
+            paymentStatusPushService.onStatusChanged(objectMapper.readValue(message.getBody(), PaymentDetailDto.class));
+        } catch (Exception e) {
+            log.error("Failed to handle payment status change message", e);
+        }
+    }
+
+}
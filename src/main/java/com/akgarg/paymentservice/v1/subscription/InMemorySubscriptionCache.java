@@ -27,6 +27,12 @@ public class InMemorySubscriptionCache implements SubscriptionCache {
         return Optional.ofNullable(subscriptions.get(userId));
     }
 
+    @Override
+    public void evictActiveSubscription(final String userId) {
+        log.info("Evicting subscription for {}", userId);
+        subscriptions.remove(userId);
+    }
+
     @Override
     public Optional<SubscriptionPack> getSubscriptionPack(final String packId) {
         log.info("Getting subscription pack for {}", packId);
@@ -2,18 +2,34 @@ package com.akgarg.paymentservice.v1.subscription;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.Nullable;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
-import java.util.Objects;
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Two-tier subscription cache. A bounded Caffeine cache local to this instance sits in front of Redis,
+ * which in turn sits in front of the subscription service.
+ */
 @Slf4j
 @Component
 @Profile("prod")
@@ -22,47 +38,108 @@ public class RedisSubscriptionCache implements SubscriptionCache {
 
     private static final String ACTIVE_SUBSCRIPTION_REDIS_KEY = "active_sub:";
     private static final String SUBSCRIPTION_PACK_REDIS_KEY = "sub_pack:";
+    private static final String SUBSCRIPTION_PACK_LOCK_REDIS_KEY = "sub_pack_lock:";
+
+    /**
+     * Tombstone stored for users without an active subscription. It is the JSON literal {@code null} so that
+     * deserializing it yields no subscription.
+     */
+    private static final String NO_ACTIVE_SUBSCRIPTION_MARKER = "null";
+
+    private static final String SUBSCRIPTION_PACK_CACHE_NAME = "subscription.pack";
+    private static final String ACTIVE_SUBSCRIPTION_CACHE_NAME = "subscription.active";
+    private static final String TIER_TAG = "tier";
+
+    private static final long DEFAULT_PACK_LOAD_TIME_MILLIS = 100;
+    private static final RedisScript<Long> RELEASE_LOCK_SCRIPT = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
 
     private final RedisTemplate<String, String> redisTemplate;
     private final SubscriptionService subscriptionService;
     private final ObjectMapper objectMapper;
     private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Long> packLoadTimes = new ConcurrentHashMap<>();
+
+    private LoadingCache<String, SubscriptionPack> localSubscriptionPacks;
+    private LoadingCache<String, Optional<Subscription>> localActiveSubscriptions;
+
+    private Counter redisPackHits;
+    private Counter redisPackMisses;
+    private Counter redisPackEarlyRefreshes;
+    private Counter redisPackCoalescedLoads;
+    private Counter redisActiveSubscriptionHits;
+    private Counter redisActiveSubscriptionMisses;
+    private Counter redisActiveSubscriptionEvictions;
+
+    private boolean earlyRefreshEnabled;
+    private double earlyRefreshBeta;
 
     @PostConstruct
     public void init() {
         log.info("Initializing RedisSubscriptionCache");
+        initLocalCaches();
+        initRedisMetrics();
+        earlyRefreshEnabled = environment.getProperty("subscription.cache.early-refresh.enabled", Boolean.class, false);
+        earlyRefreshBeta = environment.getProperty("subscription.cache.early-refresh.beta", Double.class, 1.0);
         populateCache();
     }
 
     @Override
     public void addOrUpdateActiveSubscription(final Subscription subscription) {
-        log.info("Adding/updating subscription {}", subscription);
-        final var expirationTime = Long.parseLong(environment.getProperty("subscription.cache.expiration.active-plan", "3_00_000"));
+        writeActiveSubscription(subscription);
+        localActiveSubscriptions.invalidate(subscription.userId());
+    }
+
+    @Override
+    public Optional<Subscription> getActiveSubscription(final String userId) {
+        Objects.requireNonNull(userId, "userId cannot be null");
+        log.info("Getting active subscription for userId {}", userId);
+        return localActiveSubscriptions.get(userId);
+    }
+
+    @Override
+    public void evictActiveSubscription(final String userId) {
+        Objects.requireNonNull(userId, "userId cannot be null");
+        log.info("Evicting active subscription for userId {}", userId);
 
         try {
-            redisTemplate.opsForValue().set(getActiveSubscriptionKey(subscription.userId()),
-                    objectMapper.writeValueAsString(subscription),
-                    Math.min(expirationTime, subscription.expiresAt() - System.currentTimeMillis()),
-                    TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(redisTemplate.delete(getActiveSubscriptionKey(userId)))) {
+                redisActiveSubscriptionEvictions.increment();
+            }
         } catch (Exception e) {
-            log.error("Error adding/updating subscription", e);
+            log.error("Error evicting active subscription for userId {}", userId, e);
         }
+
+        localActiveSubscriptions.invalidate(userId);
     }
 
     @Override
-    public Optional<Subscription> getActiveSubscription(final String userId) {
-        Objects.requireNonNull(userId, "userId cannot be null");
-        log.info("Getting active subscription for userId {}", userId);
+    public Optional<SubscriptionPack> getSubscriptionPack(final String packId) {
+        log.info("Getting subscription pack for packId {}", packId);
+        return Optional.ofNullable(localSubscriptionPacks.get(packId));
+    }
 
+    private Optional<Subscription> loadActiveSubscription(final String userId) {
         try {
             final var subscriptionObject = redisTemplate.opsForValue().get(getActiveSubscriptionKey(userId));
 
             if (subscriptionObject != null) {
+                redisActiveSubscriptionHits.increment();
                 return Optional.ofNullable(objectMapper.readValue(subscriptionObject, Subscription.class));
             }
 
+            redisActiveSubscriptionMisses.increment();
             final var activeSubscription = subscriptionService.getActiveSubscriptionForUser(userId);
-            activeSubscription.ifPresent(this::addOrUpdateActiveSubscription);
+
+            if (activeSubscription.isPresent()) {
+                writeActiveSubscription(activeSubscription.get());
+            } else {
+                writeNoActiveSubscriptionMarker(userId);
+            }
+
             return activeSubscription;
         } catch (Exception e) {
             log.error("Error getting active subscription for userId {}", userId, e);
@@ -70,31 +147,161 @@ public class RedisSubscriptionCache implements SubscriptionCache {
         }
     }
 
-    @Override
-    public Optional<SubscriptionPack> getSubscriptionPack(final String packId) {
-        log.info("Getting subscription pack for packId {}", packId);
-
+    /**
+     * Concurrent misses for the same pack on this instance are already coalesced by the local cache, which runs
+     * one load per key. Across instances a short-lived Redis lock makes sure only one of them calls the subscription
+     * service while the others wait for its write.
+     */
+    private SubscriptionPack loadSubscriptionPack(final String packId) {
         try {
-            final var cachedPack = redisTemplate.opsForValue().get(getSubscriptionPackKey(packId));
-            if (cachedPack != null) {
-                return Optional.ofNullable(objectMapper.readValue(cachedPack, SubscriptionPack.class));
-            }
-            final var subscriptionPack = subscriptionService.getSubscriptionPack(packId);
-            if (subscriptionPack.isPresent()) {
-                addOrUpdateSubscriptionPack(subscriptionPack.get());
+            final var cachedPack = readSubscriptionPack(packId);
+
+            if (cachedPack.value() != null) {
+                if (!shouldRefreshEarly(packId, cachedPack.ttl())) {
+                    redisPackHits.increment();
+                    return objectMapper.readValue(cachedPack.value(), SubscriptionPack.class);
+                }
+                log.info("Refreshing subscription pack {} ahead of its expiry", packId);
+                redisPackEarlyRefreshes.increment();
+            } else {
+                redisPackMisses.increment();
             }
-            return subscriptionPack;
+
+            return fetchSubscriptionPackCoalesced(packId, cachedPack.value()).orElse(null);
         } catch (Exception e) {
             log.error("Error getting subscription pack for packId {}", packId, e);
             throw new SubscriptionCacheException(e);
         }
     }
 
+    private CachedValue readSubscriptionPack(final String packId) {
+        final var key = getSubscriptionPackKey(packId);
+
+        if (!earlyRefreshEnabled) {
+            return new CachedValue(redisTemplate.opsForValue().get(key), -1);
+        }
+
+        final var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(keyBytes);
+            connection.keyCommands().pTtl(keyBytes);
+            return null;
+        });
+
+        return new CachedValue((String) results.get(0), results.get(1) instanceof Long ttl ? ttl : -1);
+    }
+
+    /**
+     * Probabilistic early expiration: the closer an entry is to its expiry, and the longer the pack took to load
+     * last time, the more likely a reader is to refresh it. Refreshes are spread out instead of all landing on the
+     * instant the key expires.
+     */
+    private boolean shouldRefreshEarly(final String packId, final long ttl) {
+        if (!earlyRefreshEnabled || ttl < 0) {
+            return false;
+        }
+
+        final var recomputeTime = packLoadTimes.getOrDefault(packId, DEFAULT_PACK_LOAD_TIME_MILLIS);
+        return -recomputeTime * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble()) >= ttl;
+    }
+
+    private Optional<SubscriptionPack> fetchSubscriptionPackCoalesced(final String packId,
+                                                                      @Nullable final String stalePack) throws Exception {
+        final var lockKey = getSubscriptionPackLockKey(packId);
+        final var lockToken = UUID.randomUUID().toString();
+        final var lockTimeout = environment.getProperty("subscription.cache.coalescing.lock-timeout", Long.class, 5_000L);
+
+        if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(lockKey, lockToken, lockTimeout, TimeUnit.MILLISECONDS))) {
+            try {
+                return fetchSubscriptionPack(packId);
+            } finally {
+                redisTemplate.execute(RELEASE_LOCK_SCRIPT, List.of(lockKey), lockToken);
+            }
+        }
+
+        redisPackCoalescedLoads.increment();
+
+        if (stalePack != null) {
+            log.info("Subscription pack {} is being refreshed by another instance. Serving current value", packId);
+            return Optional.ofNullable(objectMapper.readValue(stalePack, SubscriptionPack.class));
+        }
+
+        return awaitSubscriptionPack(packId, lockKey);
+    }
+
+    private Optional<SubscriptionPack> awaitSubscriptionPack(final String packId, final String lockKey) throws Exception {
+        log.info("Subscription pack {} is being loaded by another instance. Waiting for it", packId);
+
+        final var waitTimeout = environment.getProperty("subscription.cache.coalescing.wait-timeout", Long.class, 2_000L);
+        final var pollInterval = environment.getProperty("subscription.cache.coalescing.poll-interval", Long.class, 50L);
+        final var deadline = System.currentTimeMillis() + waitTimeout;
+
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(pollInterval);
+
+                final var cachedPack = redisTemplate.opsForValue().get(getSubscriptionPackKey(packId));
+
+                if (cachedPack != null) {
+                    return Optional.ofNullable(objectMapper.readValue(cachedPack, SubscriptionPack.class));
+                }
+
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(lockKey))) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        log.info("Subscription pack {} was not loaded by another instance in time. Loading it", packId);
+        return fetchSubscriptionPack(packId);
+    }
+
+    private Optional<SubscriptionPack> fetchSubscriptionPack(final String packId) throws JsonProcessingException {
+        final var startTime = System.currentTimeMillis();
+        final var subscriptionPack = subscriptionService.getSubscriptionPack(packId);
+        packLoadTimes.put(packId, System.currentTimeMillis() - startTime);
+
+        if (subscriptionPack.isPresent()) {
+            addOrUpdateSubscriptionPack(subscriptionPack.get());
+        }
+
+        return subscriptionPack;
+    }
+
+    private void writeActiveSubscription(final Subscription subscription) {
+        log.info("Adding/updating subscription {}", subscription);
+        final var expirationTime = environment.getProperty("subscription.cache.expiration.active-plan", Long.class, 3_00_000L);
+
+        try {
+            redisTemplate.opsForValue().set(getActiveSubscriptionKey(subscription.userId()),
+                    objectMapper.writeValueAsString(subscription),
+                    Math.min(expirationTime, subscription.expiresAt() - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("Error adding/updating subscription", e);
+        }
+    }
+
+    private void writeNoActiveSubscriptionMarker(final String userId) {
+        log.info("Caching absence of active subscription for userId {}", userId);
+        final var expirationTime = environment.getProperty("subscription.cache.expiration.no-active-plan", Long.class, 60_000L);
+
+        try {
+            redisTemplate.opsForValue().set(getActiveSubscriptionKey(userId),
+                    NO_ACTIVE_SUBSCRIPTION_MARKER,
+                    expirationTime,
+                    TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("Error caching absence of active subscription", e);
+        }
+    }
+
     private void addOrUpdateSubscriptionPack(final SubscriptionPack pack) throws JsonProcessingException {
         log.info("Adding/updating subscription pack: {}", pack);
 
-        final var expirationTime = Long.parseLong(environment.getProperty("subscription.cache.expiration.pack",
-                "4_32_00_000"));
+        final var expirationTime = environment.getProperty("subscription.cache.expiration.pack", Long.class, 4_32_00_000L);
 
         redisTemplate.opsForValue().set(getSubscriptionPackKey(pack.packId()),
                 objectMapper.writeValueAsString(pack),
@@ -109,18 +316,81 @@ public class RedisSubscriptionCache implements SubscriptionCache {
         for (final var pack : subscriptionPacks) {
             try {
                 addOrUpdateSubscriptionPack(pack);
+                localSubscriptionPacks.put(pack.packId(), pack);
             } catch (Exception e) {
                 log.error("Error while populating {} operation", SUBSCRIPTION_PACK_REDIS_KEY, e);
             }
         }
     }
 
+    private void initLocalCaches() {
+        final var packExpiration = environment.getProperty("subscription.cache.local.expiration.pack", Long.class, 10_00_000L);
+        final var packRefresh = environment.getProperty("subscription.cache.local.refresh.pack", Long.class, 5_00_000L);
+        final var activePlanExpiration = environment.getProperty("subscription.cache.local.expiration.active-plan", Long.class, 30_000L);
+        final var activePlanRefresh = environment.getProperty("subscription.cache.local.refresh.active-plan", Long.class, 15_000L);
+        final var noActivePlanExpiration = environment.getProperty("subscription.cache.local.expiration.no-active-plan", Long.class, 10_000L);
+
+        localSubscriptionPacks = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(environment.getProperty("subscription.cache.local.maximum-size.pack", Long.class, 1_000L))
+                        .expireAfterWrite(packExpiration, TimeUnit.MILLISECONDS)
+                        .refreshAfterWrite(packRefresh, TimeUnit.MILLISECONDS)
+                        .recordStats()
+                        .build(this::loadSubscriptionPack),
+                SUBSCRIPTION_PACK_CACHE_NAME, TIER_TAG, "local");
+
+        localActiveSubscriptions = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(environment.getProperty("subscription.cache.local.maximum-size.active-plan", Long.class, 1_00_000L))
+                        .expireAfter(Expiry.<String, Optional<Subscription>>writing((userId, subscription) -> Duration.ofMillis(
+                                subscription.map(sub -> Math.clamp(sub.expiresAt() - System.currentTimeMillis(), 0, activePlanExpiration))
+                                        .orElse(noActivePlanExpiration))))
+                        .refreshAfterWrite(activePlanRefresh, TimeUnit.MILLISECONDS)
+                        .recordStats()
+                        .build(this::loadActiveSubscription),
+                ACTIVE_SUBSCRIPTION_CACHE_NAME, TIER_TAG, "local");
+    }
+
+    private void initRedisMetrics() {
+        redisPackHits = redisGetsCounter(SUBSCRIPTION_PACK_CACHE_NAME, "hit");
+        redisPackMisses = redisGetsCounter(SUBSCRIPTION_PACK_CACHE_NAME, "miss");
+        redisPackEarlyRefreshes = Counter.builder("cache.early.refreshes")
+                .tag("cache", SUBSCRIPTION_PACK_CACHE_NAME)
+                .tag(TIER_TAG, "redis")
+                .register(meterRegistry);
+        redisPackCoalescedLoads = Counter.builder("cache.coalesced.loads")
+                .tag("cache", SUBSCRIPTION_PACK_CACHE_NAME)
+                .tag(TIER_TAG, "redis")
+                .register(meterRegistry);
+        redisActiveSubscriptionHits = redisGetsCounter(ACTIVE_SUBSCRIPTION_CACHE_NAME, "hit");
+        redisActiveSubscriptionMisses = redisGetsCounter(ACTIVE_SUBSCRIPTION_CACHE_NAME, "miss");
+        redisActiveSubscriptionEvictions = Counter.builder("cache.evictions")
+                .tag("cache", ACTIVE_SUBSCRIPTION_CACHE_NAME)
+                .tag(TIER_TAG, "redis")
+                .register(meterRegistry);
+    }
+
+    private Counter redisGetsCounter(final String cacheName, final String result) {
+        return Counter.builder("cache.gets")
+                .tag("cache", cacheName)
+                .tag(TIER_TAG, "redis")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
     private String getSubscriptionPackKey(final String packId) {
         return SUBSCRIPTION_PACK_REDIS_KEY + packId;
     }
 
+    private String getSubscriptionPackLockKey(final String packId) {
+        return SUBSCRIPTION_PACK_LOCK_REDIS_KEY + packId;
+    }
+
     private String getActiveSubscriptionKey(final String userId) {
         return ACTIVE_SUBSCRIPTION_REDIS_KEY + userId;
     }
 
+    private record CachedValue(@Nullable String value, long ttl) {
+    }
+
 }
@@ -8,6 +8,8 @@ public interface SubscriptionCache {
 
     Optional<Subscription> getActiveSubscription(String userId);
 
+    void evictActiveSubscription(String userId);
+
     Optional<SubscriptionPack> getSubscriptionPack(String packId);
 
 }
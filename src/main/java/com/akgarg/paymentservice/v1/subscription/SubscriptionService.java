@@ -1,18 +1,27 @@
 package com.akgarg.paymentservice.v1.subscription;
 
+import com.akgarg.paymentservice.config.ThreadContextPropagatingTaskDecorator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.ThreadContext;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static com.akgarg.paymentservice.utils.PaymentServiceUtils.REQUEST_ID_THREAD_CONTEXT_KEY;
 
@@ -26,140 +35,297 @@ public class SubscriptionService {
     private static final String REQUEST_ID_HEADER = "X-Request-ID";
     private static final String USER_ID_HEADER = "X-User-ID";
 
-    private static final String SUBSCRIPTION_SERVICE_NAME = "urlshortener-subscription-service";
     private static final String SUBSCRIPTION_PACKS_ENDPOINT = "/api/v1/subscriptions/packs";
     private static final String ACTIVE_SUBSCRIPTION_ENDPOINT = "/api/v1/subscriptions/active";
 
-    private final RestClient.Builder restClientBuilder;
-    private final DiscoveryClient discoveryClient;
-    private final Environment environment;
+    private static final ThreadContextPropagatingTaskDecorator THREAD_CONTEXT_PROPAGATOR = new ThreadContextPropagatingTaskDecorator();
 
-    public List<SubscriptionPack> getSubscriptionPacks() {
-        log.info("Getting all subscription packs");
-        final var instances = discoveryClient.getInstances(SUBSCRIPTION_SERVICE_NAME);
+    private final SubscriptionServiceInstanceRegistry instanceRegistry;
+    private final AsyncTaskExecutor subscriptionServiceExecutor;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
 
-        if (instances.isEmpty()) {
-            log.warn("No subscription service instances found");
+    private final Map<Endpoint, EndpointSettings> endpointSettings = new EnumMap<>(Endpoint.class);
+
+    private boolean hedgingEnabled;
+    private long minimumHedgeDelay;
+
+    @PostConstruct
+    public void init() {
+        hedgingEnabled = environment.getProperty("subscription.service.hedging.enabled", Boolean.class, false);
+        minimumHedgeDelay = environment.getProperty("subscription.service.hedging.min-delay", Long.class, 50L);
+
+        for (final var endpoint : Endpoint.values()) {
+            endpointSettings.put(endpoint, new EndpointSettings(
+                    environment.getProperty("subscription.service.deadline." + endpoint.name, Long.class, endpoint.defaultDeadline),
+                    Timer.builder("subscription.service.requests")
+                            .tag("endpoint", endpoint.name)
+                            .publishPercentiles(0.95)
+                            .register(meterRegistry),
+                    hedgeCounter(endpoint, "fired"),
+                    hedgeCounter(endpoint, "won"),
+                    Counter.builder("subscription.service.deadline.exceeded")
+                            .tag("endpoint", endpoint.name)
+                            .register(meterRegistry)
+            ));
         }
 
-        for (final var instance : instances) {
-            final var applicationName = environment.getProperty("spring.application.name", "urlshortener-payment-service");
-            final var applicationPort = environment.getProperty("local.server.port", "null");
-            final var requestIdHeader = applicationName + ":" + applicationPort;
-            final var instanceUri = instance.getUri();
-
-            final var subscriptions = restClientBuilder.build()
-                    .get()
-                    .uri(uriBuilder -> {
-                        final var uri = uriBuilder
-                                .scheme((instanceUri.getScheme() != null) ? instanceUri.getScheme() : "http")
-                                .host(instanceUri.getHost())
-                                .port(instanceUri.getPort())
-                                .path(SUBSCRIPTION_PACKS_ENDPOINT)
-                                .queryParam("page", 0)
-                                .queryParam("limit", 1000)
-                                .build();
-                        if (log.isInfoEnabled()) {
-                            log.info("Subscription endpoint for subscription packs: {}", uri);
-                        }
-                        return uri;
-                    })
-                    .header(REQUEST_ID_HEADER, requestIdHeader)
-                    .retrieve()
-                    .toEntity(SubscriptionPacksResponse.class)
-                    .getBody();
-
-            if (subscriptions != null) {
-                return subscriptions.packs;
-            }
-        }
+        log.info("Subscription service hedging enabled: {}, deadlines: {}", hedgingEnabled, endpointSettings);
+    }
+
+    public List<SubscriptionPack> getSubscriptionPacks() {
+        log.info("Getting all subscription packs");
 
-        return Collections.emptyList();
+        final var applicationName = environment.getProperty("spring.application.name", "urlshortener-payment-service");
+        final var applicationPort = environment.getProperty("local.server.port", "null");
+        final var requestIdHeader = applicationName + ":" + applicationPort;
+
+        return executeOnInstances(Endpoint.PACKS, restClient -> restClient
+                .get()
+                .uri(uriBuilder -> {
+                    final var uri = uriBuilder
+                            .path(SUBSCRIPTION_PACKS_ENDPOINT)
+                            .queryParam("page", 0)
+                            .queryParam("limit", 1000)
+                            .build();
+                    if (log.isInfoEnabled()) {
+                        log.info("Subscription endpoint for subscription packs: {}", uri);
+                    }
+                    return uri;
+                })
+                .header(REQUEST_ID_HEADER, requestIdHeader)
+                .retrieve()
+                .toEntity(SubscriptionPacksResponse.class)
+                .getBody())
+                .map(SubscriptionPacksResponse::packs)
+                .orElse(Collections.emptyList());
     }
 
     Optional<Subscription> getActiveSubscriptionForUser(final String userId) {
         log.info("Getting active subscription for userId {}", userId);
 
-        final var subsServiceInstances = discoveryClient.getInstances(SUBSCRIPTION_SERVICE_NAME);
+        final var requestId = ThreadContext.get(REQUEST_ID_THREAD_CONTEXT_KEY);
+
+        return executeOnInstances(Endpoint.ACTIVE_SUBSCRIPTION, restClient -> restClient
+                .get()
+                .uri(uriBuilder -> {
+                    final var uri = uriBuilder
+                            .path(ACTIVE_SUBSCRIPTION_ENDPOINT)
+                            .queryParam("userId", userId)
+                            .build();
+                    if (log.isInfoEnabled()) {
+                        log.info("Subscription endpoint for active subscription: {}", uri);
+                    }
+                    return uri;
+                })
+                .header(REQUEST_ID_HEADER, requestId)
+                .header(USER_ID_HEADER, userId)
+                .retrieve()
+                .toEntity(ActiveSubscriptionResponse.class)
+                .getBody())
+                .map(ActiveSubscriptionResponse::subscription);
+    }
 
-        if (subsServiceInstances.isEmpty()) {
+    public Optional<SubscriptionPack> getSubscriptionPack(final String packId) {
+        log.info("Getting subscription pack for packId {}", packId);
+
+        final var requestId = ThreadContext.get(REQUEST_ID_THREAD_CONTEXT_KEY);
+
+        final var subscriptionPack = executeOnInstances(Endpoint.PACK, restClient -> restClient
+                .get()
+                .uri(uriBuilder -> {
+                    final var uri = uriBuilder
+                            .path(SUBSCRIPTION_PACKS_ENDPOINT.replaceAll("/+$", "") + "/")
+                            .path(packId)
+                            .build();
+                    if (log.isInfoEnabled()) {
+                        log.info("Subscription endpoint for get pack: {}", uri);
+                    }
+                    return uri;
+                })
+                .header(REQUEST_ID_HEADER, requestId)
+                .retrieve()
+                .toEntity(SubscriptionPackResponse.class)
+                .getBody());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Subscription pack response: {}", subscriptionPack.orElse(null));
+        }
+
+        return subscriptionPack.map(SubscriptionPackResponse::pack);
+    }
+
+    /**
+     * Sends the request to the instance picked by the registry's load balancing strategy, falling back to the other
+     * instances while they return an empty body.
+     */
+    private <T> Optional<T> executeOnInstances(final Endpoint endpoint, final Function<RestClient, T> request) {
+        final var instances = instanceRegistry.candidates();
+
+        if (instances.isEmpty()) {
             log.warn("No subscription service instance(s) found");
         }
 
-        for (final var instance : subsServiceInstances) {
-            final var instanceUri = instance.getUri();
-
-            final var activeSubscriptionResponse = restClientBuilder.build()
-                    .get()
-                    .uri(uriBuilder -> {
-                        final var uri = uriBuilder
-                                .scheme((instanceUri.getScheme() != null) ? instanceUri.getScheme() : "http")
-                                .host(instanceUri.getHost())
-                                .port(instanceUri.getPort())
-                                .path(ACTIVE_SUBSCRIPTION_ENDPOINT)
-                                .queryParam("userId", userId)
-                                .build();
-                        if (log.isInfoEnabled()) {
-                            log.info("Subscription endpoint for active subscription: {}", uri);
-                        }
-                        return uri;
-                    })
-                    .header(REQUEST_ID_HEADER, ThreadContext.get(REQUEST_ID_THREAD_CONTEXT_KEY))
-                    .header(USER_ID_HEADER, userId)
-                    .retrieve()
-                    .toEntity(ActiveSubscriptionResponse.class)
-                    .getBody();
-
-            if (activeSubscriptionResponse != null) {
-                return Optional.ofNullable(activeSubscriptionResponse.subscription);
+        for (int i = 0; i < instances.size(); i++) {
+            final var hedgeInstance = (i + 1 < instances.size()) ? instances.get(i + 1) : null;
+            final var response = executeWithDeadline(endpoint, instances.get(i), hedgeInstance, request);
+
+            if (response != null) {
+                return Optional.of(response);
             }
         }
 
         return Optional.empty();
     }
 
-    public Optional<SubscriptionPack> getSubscriptionPack(final String packId) {
-        log.info("Getting subscription pack for packId {}", packId);
+    /**
+     * Runs the request against {@code instance} and waits at most the endpoint's deadline for it. With hedging enabled,
+     * the same request is also sent to {@code hedgeInstance} once the first attempt has taken longer than the endpoint's
+     * p95 latency, and whichever attempt succeeds first wins. The request fails only when every attempt has failed.
+     * <p>
+     * Attempts still running once the request is decided or its deadline passes are cancelled, which aborts their HTTP
+     * exchange and frees the executor thread. A saturated executor fails the request right away instead of running the
+     * attempt on the caller, where the deadline couldn't be enforced.
+     */
+    private <T> T executeWithDeadline(final Endpoint endpoint,
+                                      final SubscriptionServiceInstance instance,
+                                      @Nullable final SubscriptionServiceInstance hedgeInstance,
+                                      final Function<RestClient, T> request) {
+        final var settings = endpointSettings.get(endpoint);
+        final var response = new CompletableFuture<T>();
+        final var pendingAttempts = new AtomicInteger(1);
+        final var attempts = new CopyOnWriteArrayList<Future<?>>();
+
+        try {
+            attempts.add(subscriptionServiceExecutor.submit(THREAD_CONTEXT_PROPAGATOR.decorate(
+                    () -> attempt(settings, instance, request, response, pendingAttempts, false))));
+        } catch (RejectedExecutionException e) {
+            log.warn("Subscription service executor saturated. Failing {} request to {}", endpoint.name, instance.uri());
+            throw new ResourceAccessException("Subscription service executor is saturated");
+        }
 
-        final var instances = discoveryClient.getInstances(SUBSCRIPTION_SERVICE_NAME);
+        if (hedgingEnabled && hedgeInstance != null && !response.isDone()) {
+            final var hedge = THREAD_CONTEXT_PROPAGATOR.decorate(() -> {
+                if (!response.isDone()) {
+                    pendingAttempts.incrementAndGet();
+                    settings.hedgesFired().increment();
+                    log.info("Hedging {} request to {}", endpoint.name, hedgeInstance.uri());
+                    attempt(settings, hedgeInstance, request, response, pendingAttempts, true);
+                }
+            });
+
+            CompletableFuture.delayedExecutor(hedgeDelay(settings), TimeUnit.MILLISECONDS).execute(() -> {
+                if (response.isDone()) {
+                    return;
+                }
+                try {
+                    attempts.add(subscriptionServiceExecutor.submit(hedge));
+                    // the request may have been decided while the hedge was submitted, before it could be cancelled
+                    if (response.isDone()) {
+                        cancel(attempts);
+                    }
+                } catch (RejectedExecutionException e) {
+                    // a hedge rejected by a saturated executor is simply not sent
+                    log.debug("Subscription service executor saturated. Not hedging {} request", endpoint.name);
+                }
+            });
+        }
 
-        if (instances.isEmpty()) {
-            log.warn("No subscription service instance(s) found");
+        try {
+            return response.get(settings.deadline(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            settings.deadlineExceeded().increment();
+            final var deadlineExceeded = new ResourceAccessException("Subscription service %s request exceeded its deadline of %d ms"
+                    .formatted(endpoint.name, settings.deadline()));
+            // keeps a hedge that is still due from being sent
+            response.completeExceptionally(deadlineExceeded);
+            throw deadlineExceeded;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.cancel(false);
+            throw new ResourceAccessException("Interrupted while waiting for subscription service %s request".formatted(endpoint.name));
+        } finally {
+            cancel(attempts);
         }
+    }
 
-        for (final var instance : instances) {
-            final var instanceUri = instance.getUri();
-
-            final var subscriptionPack = restClientBuilder.build()
-                    .get()
-                    .uri(uriBuilder -> {
-                        final var uri = uriBuilder
-                                .scheme((instanceUri.getScheme() != null) ? instanceUri.getScheme() : "http")
-                                .host(instanceUri.getHost())
-                                .port(instanceUri.getPort())
-                                .path(SUBSCRIPTION_PACKS_ENDPOINT.replaceAll("/+$", "") + "/")
-                                .path(packId)
-                                .build();
-                        if (log.isInfoEnabled()) {
-                            log.info("Subscription endpoint for get pack: {}", uri);
-                        }
-                        return uri;
-                    })
-                    .header(REQUEST_ID_HEADER, ThreadContext.get(REQUEST_ID_THREAD_CONTEXT_KEY))
-                    .retrieve()
-                    .toEntity(SubscriptionPackResponse.class)
-                    .getBody();
-
-            if (log.isDebugEnabled()) {
-                log.debug("Subscription pack response: {}", subscriptionPack);
+    private <T> void attempt(final EndpointSettings settings,
+                             final SubscriptionServiceInstance instance,
+                             final Function<RestClient, T> request,
+                             final CompletableFuture<T> response,
+                             final AtomicInteger pendingAttempts,
+                             final boolean hedge) {
+        try {
+            final var result = settings.latency().recordCallable(() -> instance.execute(request));
+
+            if (response.complete(result) && hedge) {
+                settings.hedgesWon().increment();
+            }
+        } catch (Exception e) {
+            if (pendingAttempts.decrementAndGet() == 0) {
+                response.completeExceptionally(e);
+            } else if (!response.isDone()) {
+                log.warn("Subscription service request to {} failed while another attempt is pending", instance.uri(), e);
             }
+        }
+    }
+
+    private static void cancel(final List<Future<?>> attempts) {
+        for (final var attempt : attempts) {
+            attempt.cancel(true);
+        }
+    }
 
-            if (subscriptionPack != null) {
-                return Optional.ofNullable(subscriptionPack.pack);
+    private long hedgeDelay(final EndpointSettings settings) {
+        for (final var percentile : settings.latency().takeSnapshot().percentileValues()) {
+            if (percentile.percentile() == 0.95) {
+                return Math.max(minimumHedgeDelay, (long) percentile.value(TimeUnit.MILLISECONDS));
             }
         }
+        return minimumHedgeDelay;
+    }
+
+    private Counter hedgeCounter(final Endpoint endpoint, final String result) {
+        return Counter.builder("subscription.service.hedges")
+                .tag("endpoint", endpoint.name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private enum Endpoint {
+
+        PACKS("packs", 5_000L),
+        PACK("pack", 1_000L),
+        ACTIVE_SUBSCRIPTION("active-subscription", 1_000L);
+
+        private final String name;
+        private final long defaultDeadline;
+
+        Endpoint(final String name, final long defaultDeadline) {
+            this.name = name;
+            this.defaultDeadline = defaultDeadline;
+        }
+
+    }
+
+    private record EndpointSettings(
+            long deadline,
+            Timer latency,
+            Counter hedgesFired,
+            Counter hedgesWon,
+            Counter deadlineExceeded
+    ) {
+
+        @Override
+        public String toString() {
+            return Duration.ofMillis(deadline).toString();
+        }
 
-        return Optional.empty();
     }
 
     record SubscriptionPacksResponse(@JsonProperty("packs") List<SubscriptionPack> packs) {
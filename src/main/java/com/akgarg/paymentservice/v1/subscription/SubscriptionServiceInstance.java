@@ -0,0 +1,49 @@
+package com.akgarg.paymentservice.v1.subscription;
+
+import org.springframework.web.client.RestClient;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A subscription service instance together with its pre-built {@link RestClient} and the number of requests
+ * currently in flight to it.
+ */
+final class SubscriptionServiceInstance {
+
+    private final URI uri;
+    private final RestClient restClient;
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+
+    SubscriptionServiceInstance(final URI uri, final RestClient restClient) {
+        this.uri = uri;
+        this.restClient = restClient;
+    }
+
+    <T> T execute(final Function<RestClient, T> request) {
+        outstandingRequests.incrementAndGet();
+        try {
+            return request.apply(restClient);
+        } finally {
+            outstandingRequests.decrementAndGet();
+        }
+    }
+
+    URI uri() {
+        return uri;
+    }
+
+    int outstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionServiceInstance{" +
+                "uri=" + uri +
+                ", outstandingRequests=" + outstandingRequests +
+                '}';
+    }
+
+}
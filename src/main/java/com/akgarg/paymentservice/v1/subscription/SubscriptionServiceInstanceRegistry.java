@@ -0,0 +1,181 @@
+package com.akgarg.paymentservice.v1.subscription;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locally cached list of subscription service instances. The list is refreshed in the background, on Consul catalog
+ * changes and periodically, so request threads never call the discovery client.
+ */
+@Slf4j
+@Component
+@Profile("prod")
+@RequiredArgsConstructor
+public class SubscriptionServiceInstanceRegistry {
+
+    private static final String SUBSCRIPTION_SERVICE_NAME = "urlshortener-subscription-service";
+
+    private final DiscoveryClient discoveryClient;
+    private final RestClient.Builder restClientBuilder;
+    private final Environment environment;
+
+    private final AtomicInteger roundRobinCounter = new AtomicInteger();
+    // refreshes run on catalog changes and on the scheduler, serialized so each builds on the previous result
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "subscription-instance-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile List<SubscriptionServiceInstance> instances = List.of();
+    private LoadBalancingStrategy loadBalancingStrategy;
+
+    @PostConstruct
+    public void init() {
+        loadBalancingStrategy = LoadBalancingStrategy.fromValue(
+                environment.getProperty("subscription.service.load-balancing", "round-robin"));
+        log.info("Initializing subscription service instance registry with {} load balancing", loadBalancingStrategy);
+
+        refresh();
+
+        final var refreshInterval = environment.getProperty("subscription.service.instances.refresh-interval", Long.class, 30_000L);
+        refreshScheduler.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshScheduler.shutdownNow();
+    }
+
+    @EventListener(HeartbeatEvent.class)
+    public void onCatalogChange() {
+        refresh();
+    }
+
+    /**
+     * Returns all known instances, the one picked by the load balancing strategy first followed by the others in
+     * registry order as fallbacks.
+     */
+    List<SubscriptionServiceInstance> candidates() {
+        final var currentInstances = instances;
+
+        if (currentInstances.size() <= 1) {
+            return currentInstances;
+        }
+
+        final var selected = switch (loadBalancingStrategy) {
+            case ROUND_ROBIN -> Math.floorMod(roundRobinCounter.getAndIncrement(), currentInstances.size());
+            case LEAST_OUTSTANDING_REQUESTS -> leastOutstandingRequestsIndex(currentInstances);
+        };
+
+        final var candidates = new ArrayList<SubscriptionServiceInstance>(currentInstances.size());
+        for (int i = 0; i < currentInstances.size(); i++) {
+            candidates.add(currentInstances.get((selected + i) % currentInstances.size()));
+        }
+        return candidates;
+    }
+
+    private int leastOutstandingRequestsIndex(final List<SubscriptionServiceInstance> currentInstances) {
+        // start the scan at a rotating offset so ties do not always go to the first instance
+        final var offset = Math.floorMod(roundRobinCounter.getAndIncrement(), currentInstances.size());
+        var selected = offset;
+
+        for (int i = 1; i < currentInstances.size(); i++) {
+            final var index = (offset + i) % currentInstances.size();
+            if (currentInstances.get(index).outstandingRequests() < currentInstances.get(selected).outstandingRequests()) {
+                selected = index;
+            }
+        }
+
+        return selected;
+    }
+
+    private void refresh() {
+        refreshLock.lock();
+        try {
+            final var serviceInstances = discoveryClient.getInstances(SUBSCRIPTION_SERVICE_NAME);
+            final var existingInstances = new HashMap<URI, SubscriptionServiceInstance>();
+            instances.forEach(instance -> existingInstances.put(instance.uri(), instance));
+
+            final var refreshedInstances = serviceInstances.stream()
+                    .map(serviceInstance -> normalize(serviceInstance.getUri()))
+                    .distinct()
+                    .map(uri -> Optional.ofNullable(existingInstances.get(uri)).orElseGet(() -> createInstance(uri)))
+                    .toList();
+
+            if (!refreshedInstances.equals(instances)) {
+                log.info("Subscription service instances updated: {}", refreshedInstances);
+            }
+
+            if (refreshedInstances.isEmpty()) {
+                log.warn("No subscription service instances found");
+            }
+
+            instances = refreshedInstances;
+        } catch (Exception e) {
+            log.error("Error refreshing subscription service instances. Keeping {} known instance(s)", instances.size(), e);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private SubscriptionServiceInstance createInstance(final URI uri) {
+        return new SubscriptionServiceInstance(uri, restClientBuilder.clone().baseUrl(uri.toString()).build());
+    }
+
+    private URI normalize(final URI instanceUri) {
+        return UriComponentsBuilder.newInstance()
+                .scheme((instanceUri.getScheme() != null) ? instanceUri.getScheme() : "http")
+                .host(instanceUri.getHost())
+                .port(instanceUri.getPort())
+                .build()
+                .toUri();
+    }
+
+    enum LoadBalancingStrategy {
+
+        ROUND_ROBIN("round-robin"),
+        LEAST_OUTSTANDING_REQUESTS("least-outstanding-requests");
+
+        private final String value;
+
+        LoadBalancingStrategy(final String value) {
+            this.value = value;
+        }
+
+        static LoadBalancingStrategy fromValue(final String value) {
+            for (final var strategy : values()) {
+                if (strategy.value.equals(value)) {
+                    return strategy;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported subscription service load balancing strategy: " + value);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,21 @@
+-- Schema previously generated by Hibernate. Existing databases are baselined at this version.
+CREATE TABLE IF NOT EXISTS payment_detail
+(
+    id             VARCHAR(255) NOT NULL,
+    user_id        VARCHAR(255) NOT NULL,
+    email          VARCHAR(255),
+    name           VARCHAR(255),
+    pack_id        VARCHAR(255) NOT NULL,
+    amount         DOUBLE       NOT NULL,
+    status         VARCHAR(255) NOT NULL,
+    gateway        VARCHAR(255) NOT NULL,
+    currency       VARCHAR(255) NOT NULL,
+    payment_method VARCHAR(255),
+    created_at     BIGINT       NOT NULL,
+    updated_at     BIGINT       NOT NULL,
+    completed_at   BIGINT,
+    is_deleted     BIT          NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_payment_detail_user_id ON payment_detail (user_id);
@@ -0,0 +1,9 @@
+-- Incomplete payment lookup on checkout: WHERE user_id = ? AND status IN (...)
+CREATE INDEX idx_payment_detail_user_id_status ON payment_detail (user_id, status);
+
+-- Payment history: WHERE user_id = ? AND is_deleted = ? ORDER BY created_at, id
+-- (InnoDB appends the primary key to secondary indexes, so id is part of the index order)
+CREATE INDEX idx_payment_detail_user_id_deleted_created_at ON payment_detail (user_id, is_deleted, created_at);
+
+-- Both indexes above start with user_id
+ALTER TABLE payment_detail DROP INDEX idx_payment_detail_user_id;
@@ -0,0 +1,5 @@
+-- Compact replacements for status, gateway, currency and amount, filled by V4
+ALTER TABLE payment_detail ADD COLUMN status_code TINYINT;
+ALTER TABLE payment_detail ADD COLUMN gateway_code TINYINT;
+ALTER TABLE payment_detail ADD COLUMN currency_code SMALLINT;
+ALTER TABLE payment_detail ADD COLUMN amount_minor BIGINT;
@@ -0,0 +1,13 @@
+ALTER TABLE payment_detail DROP INDEX idx_payment_detail_user_id_status;
+
+ALTER TABLE payment_detail MODIFY COLUMN status_code TINYINT NOT NULL;
+ALTER TABLE payment_detail MODIFY COLUMN gateway_code TINYINT NOT NULL;
+ALTER TABLE payment_detail MODIFY COLUMN currency_code SMALLINT NOT NULL;
+ALTER TABLE payment_detail MODIFY COLUMN amount_minor BIGINT NOT NULL;
+
+ALTER TABLE payment_detail DROP COLUMN status;
+ALTER TABLE payment_detail DROP COLUMN gateway;
+ALTER TABLE payment_detail DROP COLUMN currency;
+ALTER TABLE payment_detail DROP COLUMN amount;
+
+CREATE INDEX idx_payment_detail_user_id_status ON payment_detail (user_id, status_code);
@@ -0,0 +1,13 @@
+CREATE TABLE payment_outbox
+(
+    id           BIGINT       NOT NULL AUTO_INCREMENT,
+    aggregate_id VARCHAR(255) NOT NULL,
+    event_type   VARCHAR(64)  NOT NULL,
+    payload      TEXT         NOT NULL,
+    created_at   BIGINT       NOT NULL,
+    sent_at      BIGINT,
+    PRIMARY KEY (id)
+);
+
+-- the relay scans unsent events in id order
+CREATE INDEX idx_payment_outbox_sent_at_id ON payment_outbox (sent_at, id);
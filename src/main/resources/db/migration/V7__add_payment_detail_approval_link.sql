@@ -0,0 +1,3 @@
+-- Approval link of a CREATED PayPal order, reused by repeat checkouts until it expires
+ALTER TABLE payment_detail ADD COLUMN approval_url VARCHAR(512);
+ALTER TABLE payment_detail ADD COLUMN approval_expires_at BIGINT;
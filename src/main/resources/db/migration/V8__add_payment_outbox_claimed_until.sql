@@ -0,0 +1,3 @@
+-- Relays claim events in a short transaction and publish them after it commits; the claim keeps other instances off
+-- the events until it runs out
+ALTER TABLE payment_outbox ADD COLUMN claimed_until BIGINT;
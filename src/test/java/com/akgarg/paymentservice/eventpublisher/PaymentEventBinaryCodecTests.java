@@ -0,0 +1,71 @@
+package com.akgarg.paymentservice.eventpublisher;
+
+import com.akgarg.paymentservice.eventpublisher.kafka.PaymentEventSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Round-trips payment events through the binary codec, compares its size with JSON and checks that the serializer
+ * names the format it wrote in the record header.
+ */
+class PaymentEventBinaryCodecTests {
+
+    private static final PaymentEvent PAYMENT_EVENT = new PaymentEvent(
+            "5O190127TN364715T",
+            "user-7f3c2a9e",
+            "pack-pro-monthly",
+            19.99,
+            "USD",
+            "paypal",
+            "jürgen@example.com",
+            "Jürgen 😀 Müller"
+    );
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void roundTripsAllFieldsAndNulls() {
+        assertThat(PaymentEventBinaryCodec.decode(PaymentEventBinaryCodec.encode(PAYMENT_EVENT))).isEqualTo(PAYMENT_EVENT);
+
+        final var sparseEvent = new PaymentEvent("id", "user", "pack", null, "EUR", "paypal", null, null);
+        assertThat(PaymentEventBinaryCodec.decode(PaymentEventBinaryCodec.encode(sparseEvent))).isEqualTo(sparseEvent);
+    }
+
+    @Test
+    void growsTheReusedBufferForLargeEvents() {
+        final var largeEvent = new PaymentEvent("id", "user", "pack", 1.0, "USD", "paypal", "e".repeat(5_000), "n".repeat(300));
+        assertThat(PaymentEventBinaryCodec.decode(PaymentEventBinaryCodec.encode(largeEvent))).isEqualTo(largeEvent);
+        assertThat(PaymentEventBinaryCodec.decode(PaymentEventBinaryCodec.encode(PAYMENT_EVENT))).isEqualTo(PAYMENT_EVENT);
+    }
+
+    @Test
+    void isAboutHalfTheSizeOfJson() throws Exception {
+        final var json = objectMapper.writeValueAsBytes(PAYMENT_EVENT);
+        final var binary = PaymentEventBinaryCodec.encode(PAYMENT_EVENT);
+
+        assertThat(binary.length).isLessThan(json.length * 6 / 10);
+    }
+
+    @Test
+    void serializerNamesTheFormatInTheContentTypeHeader() throws Exception {
+        final var headers = new RecordHeaders();
+        final var binary = new PaymentEventSerializer(objectMapper, "binary").serialize("topic", headers, PAYMENT_EVENT);
+
+        assertThat(new String(headers.lastHeader(PaymentEventSerializer.CONTENT_TYPE_HEADER).value(), StandardCharsets.UTF_8))
+                .isEqualTo(PaymentEventSerializer.BINARY_CONTENT_TYPE);
+        assertThat(PaymentEventBinaryCodec.decode(binary)).isEqualTo(PAYMENT_EVENT);
+
+        final var json = new PaymentEventSerializer(objectMapper, "json").serialize("topic", headers, PAYMENT_EVENT);
+
+        assertThat(headers.headers(PaymentEventSerializer.CONTENT_TYPE_HEADER)).hasSize(1);
+        assertThat(new String(headers.lastHeader(PaymentEventSerializer.CONTENT_TYPE_HEADER).value(), StandardCharsets.UTF_8))
+                .isEqualTo(PaymentEventSerializer.JSON_CONTENT_TYPE);
+        assertThat(objectMapper.readValue(json, PaymentEvent.class)).isEqualTo(PAYMENT_EVENT);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.akgarg.paymentservice.eventpublisher.kafka;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the spool returns records in order across segments, survives a reopen, deletes read segments and
+ * refuses records once its disk budget is used up.
+ */
+class DiskSpoolTests {
+
+    private static final int SEGMENT_SIZE = 64;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void replaysRecordsInOrderAcrossSegmentsAndReopens() throws IOException {
+        final var spool = DiskSpool.open(directory, SEGMENT_SIZE, 4);
+        for (int i = 0; i < 10; i++) {
+            assertThat(spool.offer(record(i))).isTrue();
+        }
+
+        assertThat(spool.depth()).isEqualTo(10);
+        assertThat(strings(spool.peek(3))).containsExactly("event-0", "event-1", "event-2");
+        spool.remove(3);
+        spool.close();
+
+        final var reopened = DiskSpool.open(directory, SEGMENT_SIZE, 4);
+        assertThat(reopened.depth()).isEqualTo(7);
+        assertThat(strings(reopened.peek(100))).containsExactly(
+                IntStream.range(3, 10).mapToObj(i -> "event-" + i).toArray(String[]::new));
+
+        reopened.remove(7);
+        assertThat(reopened.isEmpty()).isTrue();
+        try (final var files = Files.list(directory)) {
+            assertThat(files.filter(path -> path.getFileName().toString().startsWith("spool-"))).hasSize(1);
+        }
+    }
+
+    @Test
+    void refusesRecordsWhenFull() throws IOException {
+        final var spool = DiskSpool.open(directory, SEGMENT_SIZE, 2);
+        var accepted = 0;
+        while (spool.offer(record(accepted))) {
+            accepted++;
+        }
+
+        assertThat(accepted).isEqualTo(8);
+        assertThat(spool.diskUsage()).isEqualTo(2L * SEGMENT_SIZE);
+
+        spool.remove(4);
+        assertThat(spool.offer(record(accepted))).isTrue();
+    }
+
+    private static byte[] record(final int i) {
+        return ("event-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(final List<byte[]> records) {
+        return records.stream().map(record -> new String(record, StandardCharsets.UTF_8)).toList();
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentGateway;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Currency;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that payments are read once until a write invalidates them, locally and through the bus, and that callers
+ * can't modify the cached copy.
+ */
+class CachingDatabaseServiceTests {
+
+    private final DatabaseService delegate = mock(DatabaseService.class);
+    private final PaymentDetailInvalidationBus invalidationBus = mock(PaymentDetailInvalidationBus.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private CachingDatabaseService databaseService;
+
+    @BeforeEach
+    void setUp() {
+        databaseService = new CachingDatabaseService(delegate, invalidationBus, meterRegistry, new MockEnvironment());
+        databaseService.init();
+        when(delegate.getPaymentDetails("PAY-1")).thenReturn(Optional.of(paymentDetail()));
+    }
+
+    @Test
+    void readsThroughOnceAndHandsOutCopies() {
+        final var first = databaseService.getPaymentDetails("PAY-1").orElseThrow();
+        first.setPaymentStatus(PaymentStatus.CANCELLED);
+        final var second = databaseService.getPaymentDetails("PAY-1").orElseThrow();
+
+        assertThat(second.getPaymentStatus()).isEqualTo(PaymentStatus.CREATED);
+        verify(delegate, times(1)).getPaymentDetails("PAY-1");
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "payment.detail").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidatesOnWritesAndAnnouncesOnlyChanges() {
+        when(delegate.transitionStatus(eq("PAY-1"), any(), eq(PaymentStatus.PROCESSING), anyLong(), any())).thenReturn(false);
+        when(delegate.transitionStatus(eq("PAY-1"), any(), eq(PaymentStatus.CANCELLED), anyLong(), any())).thenReturn(true);
+
+        databaseService.getPaymentDetails("PAY-1");
+        databaseService.transitionStatus("PAY-1", List.of(PaymentStatus.CREATED), PaymentStatus.PROCESSING, 2L, null);
+        databaseService.getPaymentDetails("PAY-1");
+        verify(invalidationBus, never()).publish("PAY-1");
+
+        databaseService.transitionStatus("PAY-1", List.of(PaymentStatus.CREATED), PaymentStatus.CANCELLED, 3L, null);
+        databaseService.getPaymentDetails("PAY-1");
+
+        verify(invalidationBus).publish("PAY-1");
+        verify(delegate, times(3)).getPaymentDetails("PAY-1");
+    }
+
+    private static PaymentDetail paymentDetail() {
+        final var paymentDetail = new PaymentDetail();
+        paymentDetail.setId("PAY-1");
+        paymentDetail.setUserId("user");
+        paymentDetail.setPackId("pack");
+        paymentDetail.setAmountMinor(1999);
+        paymentDetail.setPaymentStatus(PaymentStatus.CREATED);
+        paymentDetail.setPaymentGateway(PaymentGateway.PAYPAL);
+        paymentDetail.setCurrency(Currency.getInstance("USD"));
+        return paymentDetail;
+    }
+
+}
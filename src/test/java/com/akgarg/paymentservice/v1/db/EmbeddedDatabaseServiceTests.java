@@ -0,0 +1,174 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.eventpublisher.outbox.OutboxEvent;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentGateway;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Restarts the embedded database on the same directory and checks that payments are recovered from the write-ahead
+ * log, from a snapshot plus the log written after it, and that a torn record at the end of the log is dropped, while a
+ * corrupted snapshot fails startup. Also checks that unsent outbox events survive a restart and sent ones don't come
+ * back.
+ */
+class EmbeddedDatabaseServiceTests {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void recoversPaymentsFromWriteAheadLog() throws IOException {
+        final var databaseService = open();
+        databaseService.savePaymentDetails(paymentDetail("payment-1", 1));
+        databaseService.savePaymentDetails(paymentDetail("payment-2", 2));
+        assertThat(databaseService.transitionStatus("payment-1", List.of(PaymentStatus.CREATED), PaymentStatus.COMPLETED, 10, 10L)).isTrue();
+        databaseService.destroy();
+
+        final var recovered = open();
+        assertThat(recovered.getPaymentDetails("payment-1")).hasValueSatisfying(pd -> {
+            assertThat(pd.getPaymentStatus()).isEqualTo(PaymentStatus.COMPLETED);
+            assertThat(pd.getCompletedAt()).isEqualTo(10L);
+            assertThat(pd.getAmountMinor()).isEqualTo(1999);
+            assertThat(pd.getCurrency()).isEqualTo(Currency.getInstance("USD"));
+            assertThat(pd.getApprovalUrl()).isEqualTo("https://www.paypal.com/checkoutnow?token=payment-1");
+            assertThat(pd.getApprovalExpiresAt()).isEqualTo(1001L);
+        });
+        assertThat(recovered.getPaymentDetailForUserByPaymentStatus("user", List.of(PaymentStatus.CREATED)))
+                .extracting(PaymentDetail::getId)
+                .containsExactly("payment-2");
+        recovered.destroy();
+    }
+
+    @Test
+    void recoversPaymentsFromSnapshotAndNewerLog() throws IOException {
+        final var databaseService = open();
+        databaseService.savePaymentDetails(paymentDetail("payment-1", 1));
+        databaseService.snapshot();
+        databaseService.savePaymentDetails(paymentDetail("payment-2", 2));
+        databaseService.destroy();
+
+        try (final var files = Files.list(directory)) {
+            assertThat(files.map(path -> path.getFileName().toString()))
+                    .containsExactlyInAnyOrder("snapshot-00000000000000000001.dat", "wal-00000000000000000001.log");
+        }
+
+        final var recovered = open();
+        assertThat(recovered.getAllPaymentDetails("user"))
+                .extracting(PaymentDetail::getId)
+                .containsExactly("payment-1", "payment-2");
+        recovered.destroy();
+    }
+
+    @Test
+    void failsStartupWhenNewestSnapshotIsCorrupted() throws IOException {
+        final var databaseService = open();
+        databaseService.savePaymentDetails(paymentDetail("payment-1", 1));
+        databaseService.snapshot();
+        databaseService.destroy();
+
+        final var snapshot = directory.resolve("snapshot-00000000000000000001.dat");
+        final var bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(snapshot, bytes);
+
+        assertThatThrownBy(this::open)
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("snapshot 1");
+    }
+
+    @Test
+    void dropsTornRecordAtEndOfLog() throws IOException {
+        final var databaseService = open();
+        databaseService.savePaymentDetails(paymentDetail("payment-1", 1));
+        databaseService.destroy();
+
+        // a record header after the first record whose payload never made it to disk
+        try (final var channel = Files.newByteChannel(directory.resolve("wal-00000000000000000000.log"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var firstRecordLength = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(firstRecordLength);
+            channel.position(2L * Integer.BYTES + firstRecordLength.flip().getInt());
+            channel.write(ByteBuffer.allocate(2 * Integer.BYTES).putInt(64).putInt(42).flip());
+        }
+
+        final var recovered = open();
+        assertThat(recovered.getAllPaymentDetails("user")).extracting(PaymentDetail::getId).containsExactly("payment-1");
+        recovered.savePaymentDetails(paymentDetail("payment-2", 2));
+        recovered.destroy();
+
+        final var reopened = open();
+        assertThat(reopened.getAllPaymentDetails("user")).extracting(PaymentDetail::getId).containsExactly("payment-1", "payment-2");
+        reopened.destroy();
+    }
+
+    @Test
+    void recoversUnsentOutboxEvents() throws IOException {
+        final var databaseService = open();
+        databaseService.savePaymentDetails(paymentDetail("payment-1", 1));
+        databaseService.savePaymentDetails(paymentDetail("payment-2", 2));
+        assertThat(databaseService.transitionStatus("payment-1", List.of(PaymentStatus.CREATED), PaymentStatus.COMPLETED, 10, 10L,
+                new OutboxEvent("payment-1", OutboxEvent.PAYMENT_SUCCESS, "{}", 10))).isTrue();
+        databaseService.snapshot();
+        assertThat(databaseService.transitionStatus("payment-2", List.of(PaymentStatus.CREATED), PaymentStatus.COMPLETED, 20, 20L,
+                new OutboxEvent("payment-2", OutboxEvent.PAYMENT_SUCCESS, "{}", 20))).isTrue();
+        databaseService.destroy();
+
+        final var recovered = open();
+        final var relayed = new ArrayList<String>();
+        recovered.relayOutboxEvents(10, outboxEvents -> {
+            outboxEvents.forEach(outboxEvent -> relayed.add(outboxEvent.getAggregateId()));
+            return List.of(outboxEvents.getFirst().getId());
+        });
+        assertThat(relayed).containsExactly("payment-1", "payment-2");
+        recovered.destroy();
+
+        final var reopened = open();
+        relayed.clear();
+        reopened.relayOutboxEvents(10, outboxEvents -> {
+            outboxEvents.forEach(outboxEvent -> relayed.add(outboxEvent.getAggregateId()));
+            return List.of();
+        });
+        assertThat(relayed).containsExactly("payment-2");
+        reopened.destroy();
+    }
+
+    private EmbeddedDatabaseService open() throws IOException {
+        final var environment = new MockEnvironment()
+                .withProperty("payment.embedded-db.directory", directory.toString())
+                .withProperty("payment.embedded-db.segment-size", "65536");
+        final var databaseService = new EmbeddedDatabaseService(environment);
+        databaseService.init();
+        return databaseService;
+    }
+
+    private static PaymentDetail paymentDetail(final String id, final long createdAt) {
+        final var paymentDetail = new PaymentDetail();
+        paymentDetail.setId(id);
+        paymentDetail.setUserId("user");
+        paymentDetail.setPackId("pack");
+        paymentDetail.setAmountMinor(1999);
+        paymentDetail.setPaymentStatus(PaymentStatus.CREATED);
+        paymentDetail.setPaymentGateway(PaymentGateway.PAYPAL);
+        paymentDetail.setCurrency(Currency.getInstance("USD"));
+        paymentDetail.setCreatedAt(createdAt);
+        paymentDetail.setUpdatedAt(createdAt);
+        paymentDetail.setApprovalUrl("https://www.paypal.com/checkoutnow?token=" + id);
+        paymentDetail.setApprovalExpiresAt(createdAt + 1000);
+        return paymentDetail;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.akgarg.paymentservice.v1.db;
+
+import com.akgarg.paymentservice.payment.PaymentGateway;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the schema migrations against H2 in MySQL mode, with rows written in the legacy format before the compact
+ * columns were introduced, and checks the backfill and that the hot payment_detail queries use the composite indexes.
+ */
+class PaymentDetailMigrationTests {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:payment_detail_migration;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    private static final String[] MIGRATION_LOCATIONS = {"classpath:db/migration", "classpath:com/akgarg/paymentservice/v1/db/migration"};
+
+    private static Connection connection;
+
+    @BeforeAll
+    static void setUp() throws SQLException {
+        migrate("2");
+
+        connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+
+        try (final var statement = connection.prepareStatement("""
+                INSERT INTO payment_detail (id, user_id, pack_id, amount, status, gateway, currency, created_at, updated_at, is_deleted)
+                VALUES (?, ?, 'pack', ?, ?, 'paypal', 'USD', ?, ?, ?)
+                """)) {
+            for (int i = 0; i < 1_000; i++) {
+                statement.setString(1, "payment-" + i);
+                statement.setString(2, "user-" + (i % 100));
+                statement.setString(4, i % 10 == 0 ? "CREATED" : "COMPLETED");
+                statement.setDouble(3, i % 2 == 0 ? 10.5 : 1999.99);
+                statement.setLong(5, i);
+                statement.setLong(6, i);
+                statement.setBoolean(7, i % 20 == 0);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+
+        migrate("latest");
+
+        try (final var statement = connection.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+    }
+
+    @AfterAll
+    static void close() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void legacyRowsAreBackfilled() throws SQLException {
+        try (final var statement = connection.createStatement();
+             final var resultSet = statement.executeQuery("""
+                     SELECT status_code, gateway_code, currency_code, amount_minor FROM payment_detail
+                     WHERE id IN ('payment-10', 'payment-11') ORDER BY id
+                     """)) {
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getInt("status_code")).isEqualTo(PaymentStatus.CREATED.getCode());
+            assertThat(resultSet.getInt("gateway_code")).isEqualTo(PaymentGateway.PAYPAL.getCode());
+            assertThat(resultSet.getInt("currency_code")).isEqualTo(840);
+            assertThat(resultSet.getLong("amount_minor")).isEqualTo(1_050L);
+
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getInt("status_code")).isEqualTo(PaymentStatus.COMPLETED.getCode());
+            assertThat(resultSet.getLong("amount_minor")).isEqualTo(199_999L);
+        }
+    }
+
+    @Test
+    void unknownLegacyStatusFailsTheBackfill() throws SQLException {
+        final var jdbcUrl = "jdbc:h2:mem:payment_detail_unknown_status;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        migrate(jdbcUrl, "2");
+
+        try (final var otherConnection = DriverManager.getConnection(jdbcUrl, "sa", "");
+             final var statement = otherConnection.createStatement()) {
+            statement.execute("""
+                    INSERT INTO payment_detail (id, user_id, pack_id, amount, status, gateway, currency, created_at, updated_at, is_deleted)
+                    VALUES ('payment-refunded', 'user', 'pack', 10.5, 'REFUNDED', 'paypal', 'USD', 0, 0, FALSE)
+                    """);
+        }
+
+        assertThatThrownBy(() -> migrate(jdbcUrl, "latest"))
+                .isInstanceOf(FlywayException.class)
+                .hasStackTraceContaining("Payment payment-refunded has unknown status 'REFUNDED'");
+    }
+
+    @Test
+    void incompletePaymentLookupUsesUserIdStatusIndex() throws SQLException {
+        assertThat(explain("""
+                SELECT * FROM payment_detail
+                WHERE user_id = 'user-1' AND status_code IN (1, 2)
+                """)).contains("idx_payment_detail_user_id_status");
+    }
+
+    @Test
+    void paymentHistoryUsesUserIdDeletedCreatedAtIndex() throws SQLException {
+        assertThat(explain("""
+                SELECT id, pack_id, amount_minor, status_code, currency_code, payment_method, created_at, updated_at, completed_at
+                FROM payment_detail
+                WHERE user_id = 'user-1' AND is_deleted = FALSE
+                  AND (created_at > 100 OR (created_at = 100 AND id > 'payment-100'))
+                ORDER BY created_at, id
+                LIMIT 51
+                """)).contains("idx_payment_detail_user_id_deleted_created_at");
+    }
+
+    private static void migrate(final String target) {
+        migrate(JDBC_URL, target);
+    }
+
+    private static void migrate(final String jdbcUrl, final String target) {
+        Flyway.configure()
+                .dataSource(jdbcUrl, "sa", "")
+                .locations(MIGRATION_LOCATIONS)
+                .target(target)
+                .load()
+                .migrate();
+    }
+
+    private static String explain(final String query) throws SQLException {
+        try (final var statement = connection.createStatement();
+             final var resultSet = statement.executeQuery("EXPLAIN " + query)) {
+            final var plan = new StringBuilder();
+            while (resultSet.next()) {
+                plan.append(resultSet.getString(1)).append('\n');
+            }
+            return plan.toString().toLowerCase();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.akgarg.paymentservice.v1.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that a failed flush fails the writers waiting for it and makes the log reject further appends, while records
+ * flushed before it are still replayed on the next open.
+ */
+class WriteAheadLogTests {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void turnsReadOnlyAfterFailedFlush() throws IOException {
+        final var failFlushes = new AtomicBoolean();
+        final var writeAheadLog = WriteAheadLog.open(directory, 4096, 0, payload -> {
+        }, (segment, index, length) -> {
+            if (failFlushes.get()) {
+                throw new IOException("disk failure");
+            }
+            segment.force(index, length);
+        });
+
+        writeAheadLog.awaitDurable(writeAheadLog.append(bytes("durable")));
+        assertThat(writeAheadLog.flushFailure()).isNull();
+
+        failFlushes.set(true);
+        final var offset = writeAheadLog.append(bytes("lost"));
+
+        assertThatThrownBy(() -> writeAheadLog.awaitDurable(offset))
+                .isInstanceOf(IOException.class)
+                .hasRootCauseMessage("disk failure");
+        assertThat(writeAheadLog.flushFailure()).hasMessage("disk failure");
+        assertThatThrownBy(() -> writeAheadLog.append(bytes("rejected")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("read-only");
+        assertThatThrownBy(writeAheadLog::roll).isInstanceOf(IOException.class);
+        writeAheadLog.close();
+
+        final var replayed = new ArrayList<String>();
+        WriteAheadLog.open(directory, 4096, 0, payload -> replayed.add(StandardCharsets.UTF_8.decode(payload).toString())).close();
+        assertThat(replayed).startsWith("durable").doesNotContain("rejected");
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the filter never forgets an inserted value and stays near its configured false positive probability.
+ */
+class BloomFilterTests {
+
+    @Test
+    void containsInsertedValuesAndFewOthers() {
+        final var filter = new BloomFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put("WH-" + i));
+
+        assertThat(IntStream.range(0, 10_000).allMatch(i -> filter.mightContain("WH-" + i))).isTrue();
+
+        final var falsePositives = IntStream.range(10_000, 110_000).filter(i -> filter.mightContain("WH-" + i)).count();
+        assertThat(falsePositives).isLessThan(2_000);
+    }
+
+}
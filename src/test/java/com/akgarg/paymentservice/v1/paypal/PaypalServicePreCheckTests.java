@@ -0,0 +1,73 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.akgarg.paymentservice.config.ExecutorConfig;
+import com.akgarg.paymentservice.v1.db.DatabaseService;
+import com.akgarg.paymentservice.v1.paypal.request.CreateOrderRequest;
+import com.akgarg.paymentservice.v1.status.PaymentStatusChangeBus;
+import com.akgarg.paymentservice.v1.subscription.Subscription;
+import com.akgarg.paymentservice.v1.subscription.SubscriptionCache;
+import com.akgarg.paymentservice.v1.subscription.SubscriptionPack;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Saturates the virtual thread pre-check executor, which blocks submitters at its concurrency limit, and checks that
+ * create order requests still finish.
+ */
+class PaypalServicePreCheckTests {
+
+    @Test
+    void createOrderCompletesWhenPreCheckExecutorIsSaturated() {
+        final var environment = new MockEnvironment()
+                .withProperty("spring.threads.virtual.enabled", "true")
+                .withProperty("payment.pre-check.executor.max-pool-size", "1");
+        final var executor = new ExecutorConfig().paymentPreCheckExecutor(environment);
+
+        final var subscriptionCache = mock(SubscriptionCache.class);
+        when(subscriptionCache.getSubscriptionPack("pack")).thenReturn(Optional.of(new SubscriptionPack("pack", 9.99, false)));
+        when(subscriptionCache.getSubscriptionPack("active-pack")).thenReturn(Optional.of(new SubscriptionPack("active-pack", 4.99, false)));
+        when(subscriptionCache.getActiveSubscription(anyString())).thenAnswer(invocation -> {
+            // the dependent pack lookup is registered before this completes
+            Thread.sleep(20);
+            return Optional.of(new Subscription(invocation.getArgument(0), "active-pack", Long.MAX_VALUE));
+        });
+        final var databaseService = mock(DatabaseService.class);
+        when(databaseService.getPaymentDetailForUserByPaymentStatus(anyString(), any())).thenReturn(List.of());
+
+        // the checks reject every request before PayPal is called
+        final var paypalService = new PaypalService(new ObjectMapper(), subscriptionCache, null, databaseService, environment, executor, mock(PaymentStatusChangeBus.class));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (final var requests = Executors.newFixedThreadPool(8)) {
+                final var responses = new ArrayList<Future<Integer>>();
+
+                for (int i = 0; i < 16; i++) {
+                    final var request = new CreateOrderRequest("user-" + i, "USD", 9.99, "paypal", "pack", "description", null, "name");
+                    responses.add(requests.submit((Callable<Integer>) () -> paypalService.createOrder(request).getStatusCode()));
+                }
+
+                for (final var response : responses) {
+                    assertThat(response.get()).isEqualTo(HttpStatus.CONFLICT.value());
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that the streaming parser reads the same values as walking the full tree of sample webhooks, and copes with
+ * missing or unexpectedly typed fields.
+ */
+class PaypalWebhookEventParserTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"webhook-order-approved.json", "webhook-capture-completed.json"})
+    void readsTheSameValuesAsTheTree(final String sample) throws IOException {
+        final var body = readSample(sample);
+        final var tree = objectMapper.readTree(body);
+
+        final var event = PaypalWebhookEventParser.parse(objectMapper.getFactory(), body);
+
+        assertThat(event).isEqualTo(new PaypalWebhookEvent(
+                text(tree.path("id")),
+                text(tree.path("event_type")),
+                text(tree.path("resource").path("id")),
+                text(tree.path("resource").path("payer").path("payer_id")),
+                text(tree.path("resource").path("supplementary_data").path("related_ids").path("order_id"))
+        ));
+        assertThat(event.id()).isNotNull();
+    }
+
+    @Test
+    void toleratesMissingAndMistypedFields() throws IOException {
+        final var body = """
+                {"event_type": "CHECKOUT.ORDER.APPROVED", "id": null,
+                 "resource": {"id": 42, "payer": "unknown", "supplementary_data": [1, 2]}}
+                """;
+
+        assertThat(PaypalWebhookEventParser.parse(objectMapper.getFactory(), body))
+                .isEqualTo(new PaypalWebhookEvent(null, "CHECKOUT.ORDER.APPROVED", "42", null, null));
+    }
+
+    @Test
+    void rejectsBodiesThatAreNotObjects() {
+        assertThatThrownBy(() -> PaypalWebhookEventParser.parse(objectMapper.getFactory(), "[]"))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> PaypalWebhookEventParser.parse(objectMapper.getFactory(), "{\"id\": "))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static String text(final JsonNode node) {
+        return node.isValueNode() && !node.isNull() ? node.asText() : null;
+    }
+
+    private static String readSample(final String name) throws IOException {
+        try (final var stream = Objects.requireNonNull(
+                PaypalWebhookEventParserTests.class.getResourceAsStream("/paypal/" + name))) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
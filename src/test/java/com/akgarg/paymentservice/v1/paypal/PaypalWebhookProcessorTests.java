@@ -0,0 +1,202 @@
+package com.akgarg.paymentservice.v1.paypal;
+
+import com.akgarg.paymentservice.exception.PaymentException;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentGateway;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import com.akgarg.paymentservice.v1.db.InMemoryDatabaseService;
+import com.akgarg.paymentservice.v1.status.PaymentStatusChangeBus;
+import com.akgarg.paymentservice.v1.subscription.SubscriptionCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that webhooks of one order are processed in order through retries, that unusable webhooks are dead-lettered,
+ * that pending webhooks are picked up again after a restart, that redelivered events are not processed twice, and
+ * that a failed capture is attempted again when its webhook is retried.
+ */
+class PaypalWebhookProcessorTests {
+
+    @TempDir
+    private Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PaypalService paypalService = mock(PaypalService.class);
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+
+    @Test
+    void processesWebhooksOfAnOrderInOrderAndRetriesFailures() throws Exception {
+        final var failures = new AtomicInteger(2);
+        doAnswer(invocation -> {
+            final PaypalWebhookEvent event = invocation.getArgument(0);
+            if ("WH-1".equals(event.id()) && failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("PayPal unavailable");
+            }
+            processed.add(event.id());
+            return null;
+        }).when(paypalService).processWebhook(any());
+
+        final var processor = processor();
+        processor.enqueue(webhook("WH-1", "ORDER-1"));
+        processor.enqueue(webhook("WH-2", "ORDER-1"));
+        processor.enqueue(webhook("WH-3", "ORDER-1"));
+
+        eventually(() -> assertThat(processed).containsExactly("WH-1", "WH-2", "WH-3"));
+        eventually(() -> assertThat(files("pending")).isEmpty());
+        processor.destroy();
+    }
+
+    @Test
+    void deadLettersUnusableWebhooksAndReloadsPendingOnes() throws Exception {
+        doAnswer(invocation -> {
+            final PaypalWebhookEvent event = invocation.getArgument(0);
+            if ("WH-BAD".equals(event.id())) {
+                throw new PaymentException(400, List.of("Failed to extract order Id"), "Webhook processing failed");
+            }
+            processed.add(event.id());
+            return null;
+        }).when(paypalService).processWebhook(any());
+
+        final var store = new PaypalWebhookStore(directory);
+        store.save(webhook("WH-STORED", "ORDER-2"));
+
+        final var processor = processor();
+        processor.enqueue(webhook("WH-BAD", "ORDER-3"));
+
+        eventually(() -> assertThat(processed).containsExactly("WH-STORED"));
+        eventually(() -> assertThat(files("dead-letter")).hasSize(1));
+        assertThat(files("pending")).isEmpty();
+        processor.destroy();
+    }
+
+    @Test
+    void processesRedeliveredEventsOnce() throws Exception {
+        doAnswer(invocation -> {
+            final PaypalWebhookEvent event = invocation.getArgument(0);
+            processed.add(event.id());
+            return null;
+        }).when(paypalService).processWebhook(any());
+
+        final var processor = processor();
+        processor.enqueue(webhook("WH-1", "ORDER-1"));
+        processor.enqueue(webhook("WH-1", "ORDER-1"));
+        eventually(() -> assertThat(files("pending")).isEmpty());
+
+        processor.enqueue(webhook("WH-1", "ORDER-1"));
+        processor.enqueue(webhook("WH-2", "ORDER-1"));
+
+        eventually(() -> assertThat(processed).containsExactly("WH-1", "WH-2"));
+        eventually(() -> assertThat(files("pending")).isEmpty());
+        processor.destroy();
+    }
+
+    @Test
+    void capturesAgainWhenRetryingAFailedCapture() throws Exception {
+        final var environment = new MockEnvironment();
+        final var databaseService = new InMemoryDatabaseService(environment);
+        databaseService.init();
+        databaseService.savePaymentDetails(createdPayment("ORDER-1"));
+
+        final var captureAttempts = new AtomicInteger();
+        final var capturingService = new PaypalService(objectMapper, mock(SubscriptionCache.class), null, databaseService,
+                environment, Runnable::run, mock(PaymentStatusChangeBus.class)) {
+            @Override
+            boolean capturePaypalOrder(final String paymentId) throws Exception {
+                if (captureAttempts.incrementAndGet() == 1) {
+                    throw new IOException("PayPal timed out");
+                }
+                return true;
+            }
+        };
+
+        final var processor = processor(capturingService);
+        processor.enqueue("""
+                {"id": "WH-1", "event_type": "CHECKOUT.ORDER.APPROVED", "resource": {"id": "ORDER-1"}}
+                """);
+
+        eventually(() -> assertThat(databaseService.getPaymentDetails("ORDER-1"))
+                .hasValueSatisfying(pd -> assertThat(pd.getPaymentStatus()).isEqualTo(PaymentStatus.COMPLETED)));
+        assertThat(captureAttempts).hasValue(2);
+        processor.destroy();
+    }
+
+    private PaypalWebhookProcessor processor() throws IOException {
+        return processor(paypalService);
+    }
+
+    private PaypalWebhookProcessor processor(final PaypalService paypalService) throws IOException {
+        final var environment = new MockEnvironment()
+                .withProperty("paypal.webhook.queue.directory", directory.toString())
+                .withProperty("paypal.webhook.workers", "4")
+                .withProperty("paypal.webhook.retry.initial-backoff", "10");
+        final var meterRegistry = new SimpleMeterRegistry();
+        final var eventStore = new InMemoryPaypalWebhookEventStore(environment);
+        eventStore.init();
+        final var deduplicator = new PaypalWebhookDeduplicator(eventStore, meterRegistry, environment);
+        deduplicator.init();
+        final var processor = new PaypalWebhookProcessor(paypalService, deduplicator, objectMapper, meterRegistry, environment);
+        processor.init();
+        return processor;
+    }
+
+    private static void eventually(final ThrowingRunnable assertion) throws Exception {
+        final var deadline = System.nanoTime() + 5_000_000_000L;
+        while (true) {
+            try {
+                assertion.run();
+                return;
+            } catch (AssertionError e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private List<Path> files(final String subdirectory) throws IOException {
+        try (final var files = Files.list(directory.resolve(subdirectory))) {
+            return files.toList();
+        }
+    }
+
+    private static PaymentDetail createdPayment(final String id) {
+        final var paymentDetail = new PaymentDetail();
+        paymentDetail.setId(id);
+        paymentDetail.setUserId("user");
+        paymentDetail.setPackId("pack");
+        paymentDetail.setAmountMinor(999);
+        paymentDetail.setPaymentStatus(PaymentStatus.CREATED);
+        paymentDetail.setPaymentGateway(PaymentGateway.PAYPAL);
+        paymentDetail.setCurrency(Currency.getInstance("USD"));
+        return paymentDetail;
+    }
+
+    private static String webhook(final String id, final String orderId) {
+        return """
+                {"id": "%s", "event_type": "PAYMENT.CAPTURE.COMPLETED",
+                 "resource": {"supplementary_data": {"related_ids": {"order_id": "%s"}}}}
+                """.formatted(id, orderId);
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.akgarg.paymentservice.v1.status;
+
+import com.akgarg.paymentservice.exception.PaymentException;
+import com.akgarg.paymentservice.payment.PaymentDetail;
+import com.akgarg.paymentservice.payment.PaymentDetailDto;
+import com.akgarg.paymentservice.payment.PaymentGateway;
+import com.akgarg.paymentservice.payment.PaymentStatus;
+import com.akgarg.paymentservice.v1.db.DatabaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Currency;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that long polls answer on a status change or immediately when the status already differs, and that unknown
+ * payments don't leave a client registered.
+ */
+class PaymentStatusPushServiceTests {
+
+    private final DatabaseService databaseService = mock(DatabaseService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PaymentStatusPushService paymentStatusPushService;
+
+    @BeforeEach
+    void setUp() {
+        paymentStatusPushService = new PaymentStatusPushService(databaseService, meterRegistry, new MockEnvironment());
+        paymentStatusPushService.init();
+        when(databaseService.getPaymentDetails("PAY-1")).thenReturn(Optional.of(paymentDetail(PaymentStatus.CREATED)));
+    }
+
+    @Test
+    void answersLongPollWhenTheStatusChanges() {
+        final var result = paymentStatusPushService.poll("PAY-1", PaymentStatus.CREATED);
+        assertThat(result.hasResult()).isFalse();
+        assertThat(connections()).isEqualTo(1);
+
+        paymentStatusPushService.onStatusChanged(PaymentDetailDto.fromPaymentDetail(paymentDetail(PaymentStatus.CREATED)));
+        assertThat(result.hasResult()).isFalse();
+
+        paymentStatusPushService.onStatusChanged(PaymentDetailDto.fromPaymentDetail(paymentDetail(PaymentStatus.PROCESSING)));
+        assertThat(result.getResult()).isInstanceOfSatisfying(PaymentDetailDto.class,
+                paymentDetail -> assertThat(paymentDetail.getPaymentStatus()).isEqualTo(PaymentStatus.PROCESSING));
+    }
+
+    @Test
+    void answersLongPollImmediatelyWhenTheStatusAlreadyDiffers() {
+        final var result = paymentStatusPushService.poll("PAY-1", PaymentStatus.PROCESSING);
+
+        assertThat(result.getResult()).isInstanceOfSatisfying(PaymentDetailDto.class,
+                paymentDetail -> assertThat(paymentDetail.getPaymentStatus()).isEqualTo(PaymentStatus.CREATED));
+    }
+
+    @Test
+    void rejectsUnknownPaymentsWithoutKeepingAWatcher() {
+        assertThatThrownBy(() -> paymentStatusPushService.poll("PAY-2", null))
+                .isInstanceOfSatisfying(PaymentException.class, e -> assertThat(e.getStatusCode()).isEqualTo(404));
+        assertThat(connections()).isZero();
+    }
+
+    private double connections() {
+        return meterRegistry.get("payment.status.push.connections").gauge().value();
+    }
+
+    private static PaymentDetail paymentDetail(final PaymentStatus paymentStatus) {
+        final var paymentDetail = new PaymentDetail();
+        paymentDetail.setId("PAY-1");
+        paymentDetail.setUserId("user");
+        paymentDetail.setPackId("pack");
+        paymentDetail.setAmountMinor(1999);
+        paymentDetail.setPaymentStatus(paymentStatus);
+        paymentDetail.setPaymentGateway(PaymentGateway.PAYPAL);
+        paymentDetail.setCurrency(Currency.getInstance("USD"));
+        return paymentDetail;
+    }
+
+}